@@ -0,0 +1,109 @@
+package com.tr.webwhitelist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// loadEmailConfig / saveEmailConfig: 三种存储在 1k / 100k / 1M 个邮箱下的加载和保存, 以及两种内存索引
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EmailStorageBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int emails;
+
+    @Param({"yaml", "journal", "jdbc"})
+    public String type;
+
+    @Param({"strings", "hashed"})
+    public String index;
+
+    private final Logger logger = Logger.getLogger("EmailStorageBenchmark");
+    private Path dataFolder;
+    private EmailStorage storage;
+    private long appended;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataFolder = Files.createTempDirectory("trwl-storage-bench");
+        if ("yaml".equals(type)) {
+            Path file = dataFolder.resolve("emails.yml");
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write("registered:\n");
+                for (int i = 0; i < emails; i++) {
+                    writer.write("  player" + i + "@qq.com: Player" + i + "\n");
+                }
+            }
+            storage = new YamlEmailStorage(file.toFile(), logger, new Metrics().persistenceFlush);
+        } else {
+            try (BufferedWriter writer = Files.newBufferedWriter(dataFolder.resolve("emails.snapshot"), StandardCharsets.UTF_8)) {
+                for (int i = 0; i < emails; i++) {
+                    writer.write("player" + i + "@qq.com\tPlayer" + i + "\n");
+                }
+            }
+            storage = new JournalEmailStorage(dataFolder.toFile(), logger, 2, 10000, new Metrics().persistenceFlush);
+            if ("jdbc".equals(type)) {
+                // 从快照导入到内存中的 H2
+                JdbcEmailStorage jdbc = new JdbcEmailStorage("jdbc:h2:mem:trwl-bench-" + emails + ";DB_CLOSE_DELAY=-1",
+                        "org.h2.Driver", "", "", "trwl_emails", 4, 5000, logger, new Metrics().persistenceFlush);
+                jdbc.importFrom(storage);
+                storage.close();
+                storage = jdbc;
+            }
+        }
+        // YAML 存储保存时写回已加载的内容
+        storage.forEach((email, username) -> { });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if ("jdbc".equals(type)) {
+            storage.clear();
+        }
+        storage.close();
+        StubServer.deleteRecursively(dataFolder);
+    }
+
+    // 启动和重载时把全部邮箱读进内存索引
+    @Benchmark
+    public int loadEmailConfig() throws IOException {
+        EmailRegistry registry = EmailRegistry.create(index);
+        storage.forEach((email, username) -> registry.load(email));
+        return registry.size();
+    }
+
+    @Benchmark
+    public void saveEmailConfig() {
+        storage.flush();
+    }
+
+    // 每次注册成功后的持久化开销, jdbc 存储的写入发生在 claim
+    @Benchmark
+    public void appendOne() throws IOException {
+        long n = ++appended;
+        storage.claim("new" + n + "@qq.com", "New" + n);
+        storage.append("new" + n + "@qq.com", "New" + n);
+        storage.flush();
+    }
+}
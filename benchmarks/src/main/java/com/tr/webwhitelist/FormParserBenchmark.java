@@ -0,0 +1,85 @@
+package com.tr.webwhitelist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// WebHandler.parseFormData: 表单和 JSON 请求体的解析
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormParserBenchmark {
+    // plain: 只有 ASCII; encoded: 中文用户名和百分号转义
+    @Param({"plain", "encoded"})
+    public String body;
+
+    private FormParser parser;
+    private byte[] urlEncoded;
+    private byte[] json;
+
+    @Setup
+    public void setup() {
+        parser = new FormParser(4096, 320);
+        String form = "plain".equals(body)
+                ? "username=Steve_123&email=steve.minecraft%40qq.com&code=default"
+                : "username=%E7%8E%A9%E5%AE%B6%E4%B8%80%E5%8F%B7&email=wan.jia%2Bmc%40mail.example.edu.cn&code=a%26b%3Dc";
+        urlEncoded = form.getBytes(StandardCharsets.UTF_8);
+        json = ("plain".equals(body)
+                ? "{\"username\":\"Steve_123\",\"email\":\"steve.minecraft@qq.com\",\"code\":\"default\"}"
+                : "{\"username\":\"\\u73a9\\u5bb6\\u4e00\\u53f7\",\"email\":\"wan.jia+mc@mail.example.edu.cn\",\"code\":\"a&b=c\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public FormParser.Form parseFormData() throws IOException {
+        FakeHttpExchange exchange = new FakeHttpExchange("POST", "/", "127.0.0.1",
+                "application/x-www-form-urlencoded", urlEncoded);
+        return TRWhiteList.WebHandler.parseFormData(exchange, parser);
+    }
+
+    @Benchmark
+    public FormParser.Form parseJson() throws IOException {
+        FakeHttpExchange exchange = new FakeHttpExchange("POST", "/", "127.0.0.1",
+                "application/json", json);
+        return TRWhiteList.WebHandler.parseFormData(exchange, parser);
+    }
+
+    @Benchmark
+    public FormParser.Form parseUrlEncodedStream() throws IOException {
+        return parser.parseUrlEncoded(new ByteArrayInputStream(urlEncoded));
+    }
+
+    // 对照: 读成字符串后 split + URLDecoder 的旧实现
+    @Benchmark
+    public Map<String, String> legacySplitDecode() {
+        String text = new String(urlEncoded, StandardCharsets.UTF_8);
+        Map<String, String> params = new HashMap<>();
+        for (String pair : text.split("&")) {
+            String[] keyValue = pair.split("=", 2);
+            if (keyValue.length == 2) {
+                params.put(URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8),
+                        URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,378 @@
+package com.tr.webwhitelist;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// 注册高峰的压力测试: 在 StubServer 中启用真实插件, 用异步 HTTP 客户端按固定速率 (开放模型) 发送注册请求,
+// 同时每 50 ms 推进一次主线程; 最后输出吞吐量、延迟分布、错误率和每 tick 的主线程耗时
+//
+// java -cp benchmarks/target/benchmarks.jar com.tr.webwhitelist.LoadTest --rate 500 --duration 60
+public final class LoadTest {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final String CODE = "load";
+
+    // 请求类型和期望的状态码
+    enum Kind {
+        VALID("valid"),
+        DUPLICATE("duplicate"),
+        BAD_CODE("bad-code"),
+        BAD_SUFFIX("bad-suffix");
+
+        final String label;
+        final LongAdder sent = new LongAdder();
+        final LongAdder expected = new LongAdder();
+        final LongAdder unexpected = new LongAdder();
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    private final int rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final boolean api;
+    private final int[] weights = new int[Kind.values().length];
+    private final Map<String, Object> overrides = new HashMap<>();
+    private final long profileLookupMillis;
+
+    // 延迟从计划发送时刻算起, 服务器变慢时不会少算排队时间; 单位微秒
+    private final Histogram latency = new Histogram(TimeUnit.SECONDS.toMicros(60), 3);
+    private final Histogram tickWork = new Histogram(TimeUnit.SECONDS.toMicros(60), 3);
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder overBudgetTicks = new LongAdder();
+    private volatile boolean recording;
+
+    private LoadTest(Map<String, String> options) {
+        rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        api = Boolean.parseBoolean(options.getOrDefault("api", "false"));
+        profileLookupMillis = Long.parseLong(options.getOrDefault("profile-lookup-ms", "0"));
+        parseMix(options.getOrDefault("mix", "valid:70,duplicate:10,bad-code:10,bad-suffix:10"));
+
+        overrides.put("port", 0);
+        overrides.put("verification-code", CODE);
+        overrides.put("allowed-email-suffixes", Collections.singletonList("@qq.com"));
+        overrides.put("rate-limit.enabled", false);
+        // --set key=value,key=value 覆盖任意配置项
+        String set = options.get("set");
+        if (set != null) {
+            for (String pair : set.split(",")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    overrides.put(pair.substring(0, eq).trim(), parseValue(pair.substring(eq + 1).trim()));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                usage("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("help")) {
+                usage(null);
+            }
+            if (i + 1 >= args.length) {
+                usage("Missing value for --" + name);
+            }
+            options.put(name, args[++i]);
+        }
+        new LoadTest(options).run();
+        // HttpClient 的线程不会自己退出
+        System.exit(0);
+    }
+
+    private static void usage(String error) {
+        PrintStream out = error != null ? System.err : System.out;
+        if (error != null) {
+            out.println(error);
+        }
+        out.println("Options:");
+        out.println("  --rate <req/s>              requests started per second, independent of responses (200)");
+        out.println("  --duration <s>              measured seconds (30)");
+        out.println("  --warmup <s>                seconds sent before measuring (5)");
+        out.println("  --mix <kind:weight,...>     valid, duplicate, bad-code, bad-suffix (valid:70,duplicate:10,bad-code:10,bad-suffix:10)");
+        out.println("  --api <true|false>          POST /api/register instead of the form (false)");
+        out.println("  --profile-lookup-ms <ms>    simulated getOfflinePlayer latency (0)");
+        out.println("  --set <key=value,...>       config.yml overrides, e.g. web-server.threads=16");
+        System.exit(error != null ? 2 : 0);
+    }
+
+    private void parseMix(String mix) {
+        for (String part : mix.split(",")) {
+            String[] kv = part.split(":");
+            Kind kind = null;
+            for (Kind candidate : Kind.values()) {
+                if (candidate.label.equalsIgnoreCase(kv[0].trim())) {
+                    kind = candidate;
+                }
+            }
+            if (kind == null || kv.length != 2) {
+                usage("Invalid --mix entry " + part);
+                return;
+            }
+            weights[kind.ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+    }
+
+    private static Object parseValue(String value) {
+        if (value.equals("true") || value.equals("false")) {
+            return Boolean.parseBoolean(value);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private void run() throws Exception {
+        StubServer stub = StubServer.install();
+        stub.setProfileLookupMillis(profileLookupMillis);
+        Path dataFolder = Files.createTempDirectory("trwl-load");
+        TRWhiteList plugin = stub.enablePlugin(dataFolder.toFile(), overrides);
+        URI target = URI.create("http://127.0.0.1:" + plugin.getWebPort() + (api ? "/api/register" : "/"));
+
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(4, new NamedThreadFactory("LoadTest-Client"));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(clientExecutor)
+                .build();
+
+        // duplicate 请求使用的邮箱
+        client.send(HttpRequest.newBuilder(target)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body("Registered", "registered@qq.com", CODE)))
+                .build(), HttpResponse.BodyHandlers.discarding());
+        // 服务器主线程: 每 50 ms 一个 tick, 记录同步任务 (白名单应用等) 的耗时
+        ScheduledExecutorService mainThread = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("LoadTest-Main"));
+        mainThread.scheduleAtFixedRate(() -> {
+            long nanos = stub.scheduler().tick();
+            if (recording) {
+                synchronized (tickWork) {
+                    tickWork.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+                }
+                if (nanos > TICK_NANOS) {
+                    overBudgetTicks.increment();
+                }
+            }
+        }, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+
+        System.out.printf(Locale.ROOT, "Sending %d req/s to %s for %d s (+%d s warmup)%n",
+                rate, target, durationSeconds, warmupSeconds);
+        generate(client, target, warmupSeconds);
+        reset();
+        recording = true;
+        long measureStart = System.nanoTime();
+        generate(client, target, durationSeconds);
+        // 等待已发出的请求
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        double elapsedSeconds = (System.nanoTime() - measureStart) / 1e9;
+        recording = false;
+
+        report(elapsedSeconds, stub);
+
+        mainThread.shutdownNow();
+        plugin.onDisable();
+        stub.scheduler().cancelAll();
+        clientExecutor.shutdownNow();
+        StubServer.deleteRecursively(dataFolder);
+    }
+
+    // 开放模型: 按计划时刻发送, 不等前一个请求的响应
+    private void generate(HttpClient client, URI target, int seconds) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+        long start = System.nanoTime();
+        long count = (long) rate * seconds;
+        for (long i = 0; i < count; i++) {
+            long intended = start + i * intervalNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Kind kind = pickKind();
+            long n = sequence.incrementAndGet();
+            kind.sent.increment();
+            byte[] body;
+            switch (kind) {
+                case DUPLICATE:
+                    body = body("Dup" + n, "registered@qq.com", CODE);
+                    break;
+                case BAD_CODE:
+                    body = body("Code" + n, "code" + n + "@qq.com", "wrong");
+                    break;
+                case BAD_SUFFIX:
+                    body = body("Suffix" + n, "suffix" + n + "@example.com", CODE);
+                    break;
+                default:
+                    body = body("Load" + n, "load" + n + "@qq.com", CODE);
+                    break;
+            }
+            send(client, target, body, kind, intended);
+        }
+    }
+
+    private Kind pickKind() {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int r = ThreadLocalRandom.current().nextInt(Math.max(1, total));
+        for (Kind kind : Kind.values()) {
+            r -= weights[kind.ordinal()];
+            if (r < 0) {
+                return kind;
+            }
+        }
+        return Kind.VALID;
+    }
+
+    private void send(HttpClient client, URI target, byte[] body, Kind kind, long intendedNanos) {
+        HttpRequest request = HttpRequest.newBuilder(target)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        inFlight.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            inFlight.decrementAndGet();
+            if (!recording) {
+                return;
+            }
+            long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos));
+            synchronized (latency) {
+                latency.recordValue(Math.min(micros, TimeUnit.SECONDS.toMicros(60)));
+            }
+            if (error != null) {
+                failures.increment();
+                kind.unexpected.increment();
+                return;
+            }
+            int status = response.statusCode();
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+            if (status == expectedStatus(kind)) {
+                kind.expected.increment();
+            } else {
+                kind.unexpected.increment();
+            }
+        });
+    }
+
+    private int expectedStatus(Kind kind) {
+        if (kind == Kind.VALID) {
+            return api ? 202 : 200;
+        }
+        return 403;
+    }
+
+    private void reset() {
+        synchronized (latency) {
+            latency.reset();
+        }
+        synchronized (tickWork) {
+            tickWork.reset();
+        }
+        statuses.clear();
+        failures.reset();
+        overBudgetTicks.reset();
+        for (Kind kind : Kind.values()) {
+            kind.sent.reset();
+            kind.expected.reset();
+            kind.unexpected.reset();
+        }
+    }
+
+    private void report(double elapsedSeconds, StubServer stub) {
+        Histogram requests;
+        Histogram ticks;
+        synchronized (latency) {
+            requests = latency.copy();
+        }
+        synchronized (tickWork) {
+            ticks = tickWork.copy();
+        }
+        long completed = requests.getTotalCount();
+        long unexpected = 0;
+        long sent = 0;
+        PrintStream out = System.out;
+        out.println();
+        out.printf(Locale.ROOT, "Completed %d requests in %.1f s: %.1f req/s (target %d req/s)%n",
+                completed, elapsedSeconds, completed / elapsedSeconds, rate);
+        out.printf(Locale.ROOT, "%-12s %10s %10s %10s%n", "kind", "sent", "expected", "unexpected");
+        for (Kind kind : Kind.values()) {
+            sent += kind.sent.sum();
+            unexpected += kind.unexpected.sum();
+            out.printf(Locale.ROOT, "%-12s %10d %10d %10d%n",
+                    kind.label, kind.sent.sum(), kind.expected.sum(), kind.unexpected.sum());
+        }
+        List<Integer> codes = new ArrayList<>(statuses.keySet());
+        Collections.sort(codes);
+        StringBuilder byStatus = new StringBuilder();
+        for (int code : codes) {
+            byStatus.append(' ').append(code).append('=').append(statuses.get(code).sum());
+        }
+        out.println("Status codes:" + byStatus + (failures.sum() > 0 ? " transport-errors=" + failures.sum() : ""));
+        out.printf(Locale.ROOT, "Error rate: %.3f%% (unexpected status or transport error)%n",
+                sent > 0 ? 100.0 * unexpected / sent : 0);
+        out.printf(Locale.ROOT, "Latency ms: p50 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                requests.getValueAtPercentile(50) / 1000.0, requests.getValueAtPercentile(99) / 1000.0,
+                requests.getValueAtPercentile(99.9) / 1000.0, requests.getMaxValue() / 1000.0);
+        out.printf(Locale.ROOT, "Main thread ms per tick: p50 %.3f  p99 %.3f  p99.9 %.3f  max %.3f, %d of %d ticks over 50 ms%n",
+                ticks.getValueAtPercentile(50) / 1000.0, ticks.getValueAtPercentile(99) / 1000.0,
+                ticks.getValueAtPercentile(99.9) / 1000.0, ticks.getMaxValue() / 1000.0,
+                overBudgetTicks.sum(), ticks.getTotalCount());
+        out.printf(Locale.ROOT, "Whitelisted %d players, %d profile lookups%n",
+                stub.whitelist().size(), stub.getProfileLookups());
+
+        out.println();
+        out.println("Request latency (ms):");
+        requests.outputPercentileDistribution(out, 1000.0);
+        out.println();
+        out.println("Main thread work per tick (ms):");
+        ticks.outputPercentileDistribution(out, 1000.0);
+    }
+
+    private static byte[] body(String username, String email, String code) {
+        return ("username=" + username + "&email=" + email.replace("@", "%40") + "&code=" + code)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
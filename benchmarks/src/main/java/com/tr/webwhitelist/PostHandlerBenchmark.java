@@ -0,0 +1,119 @@
+package com.tr.webwhitelist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 完整的 POST 处理路径: 启用真实插件, 通过 FakeHttpExchange 调用 WebHandler
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostHandlerBenchmark {
+    private static final String FORM = "application/x-www-form-urlencoded";
+
+    @Param({"success", "invalid_email", "suffix_not_allowed", "already_registered", "invalid_code"})
+    public String outcome;
+
+    private StubServer stub;
+    private Path dataFolder;
+    private TRWhiteList plugin;
+    private TRWhiteList.WebHandler handler;
+    private byte[] fixedBody;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        stub = StubServer.install();
+        dataFolder = Files.createTempDirectory("trwl-post-bench");
+        Map<String, Object> overrides = new HashMap<>();
+        overrides.put("port", 0);
+        overrides.put("verification-code", "bench");
+        overrides.put("allowed-email-suffixes", Collections.singletonList("@qq.com"));
+        overrides.put("rate-limit.enabled", false);
+        overrides.put("whitelist-queue.max-per-tick", 100000);
+        overrides.put("whitelist-queue.max-millis-per-tick", 0);
+        plugin = stub.enablePlugin(dataFolder.toFile(), overrides);
+        handler = new TRWhiteList.WebHandler(plugin);
+
+        // 预先注册一个邮箱供 already_registered 使用
+        handler.handle(exchange(form("Registered", "registered@qq.com", "bench")));
+
+        switch (outcome) {
+            case "invalid_email":
+                fixedBody = form("Steve", "not-an-email", "bench");
+                break;
+            case "suffix_not_allowed":
+                fixedBody = form("Steve", "steve@example.com", "bench");
+                break;
+            case "already_registered":
+                fixedBody = form("Steve", "registered@qq.com", "bench");
+                break;
+            case "invalid_code":
+                fixedBody = form("Steve", "steve@qq.com", "wrong");
+                break;
+            default:
+                fixedBody = null;
+                break;
+        }
+    }
+
+    // 每轮结束时把排队的白名单全部应用
+    @TearDown(Level.Iteration)
+    public void drain() {
+        stub.scheduler().tick();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        plugin.onDisable();
+        stub.scheduler().cancelAll();
+        StubServer.deleteRecursively(dataFolder);
+    }
+
+    @Benchmark
+    public int post() throws IOException {
+        byte[] body = fixedBody;
+        if (body == null) {
+            long n = ++counter;
+            body = form("Player" + n, "player" + n + "@qq.com", "bench");
+            // 主线程批量应用的开销按 1/1024 摊到每次请求中
+            if ((n & 1023) == 0) {
+                stub.scheduler().tick();
+            }
+        }
+        FakeHttpExchange exchange = exchange(body);
+        handler.handle(exchange);
+        return exchange.getResponseCode();
+    }
+
+    private static FakeHttpExchange exchange(byte[] body) {
+        return new FakeHttpExchange("POST", "/", "127.0.0.1", FORM, body);
+    }
+
+    private static byte[] form(String username, String email, String code) {
+        return ("username=" + username + "&email=" + email.replace("@", "%40") + "&code=" + code)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,369 @@
+package com.tr.webwhitelist;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 在服务器之外运行插件: 用动态代理伪造 Server / BukkitScheduler / OfflinePlayer,
+// 主线程由调用方通过 tick() 推进
+final class StubServer implements InvocationHandler {
+    private static StubServer instance;
+
+    private final Logger logger = Logger.getLogger("StubServer");
+    private final Server server;
+    private final Scheduler scheduler = new Scheduler();
+    private final Set<String> whitelist = ConcurrentHashMap.newKeySet();
+    private final AtomicLong profileLookups = new AtomicLong();
+    // 模拟 getOfflinePlayer 查询 Mojang 的耗时
+    private volatile long profileLookupMillis;
+
+    private StubServer() {
+        logger.setLevel(Level.WARNING);
+        server = (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[]{Server.class}, this);
+    }
+
+    // Bukkit.setServer 只能调用一次, 整个 JVM 共用一个实例
+    static synchronized StubServer install() {
+        if (instance == null) {
+            instance = new StubServer();
+            Bukkit.setServer(instance.server);
+        }
+        return instance;
+    }
+
+    // 在 dataFolder 中写入带覆盖项的 config.yml 并启用插件
+    TRWhiteList enablePlugin(File dataFolder, Map<String, Object> overrides) throws IOException {
+        dataFolder.mkdirs();
+        YamlConfiguration config;
+        try (InputStream in = TRWhiteList.class.getResourceAsStream("/config.yml")) {
+            if (in == null) {
+                throw new IOException("config.yml not found on the classpath");
+            }
+            config = YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        overrides.forEach(config::set);
+        config.save(new File(dataFolder, "config.yml"));
+
+        PluginDescriptionFile description = new PluginDescriptionFile("TRWhiteList", "bench", TRWhiteList.class.getName());
+        TRWhiteList plugin = new StubPlugin(new JavaPluginLoader(server), description, dataFolder,
+                new File(dataFolder, "TRWhiteList.jar"));
+        plugin.onEnable();
+        // 注册请求在已注册邮箱加载完成前返回 503
+        plugin.getRegistryLoad().join();
+        return plugin;
+    }
+
+    Scheduler scheduler() {
+        return scheduler;
+    }
+
+    Set<String> whitelist() {
+        return whitelist;
+    }
+
+    long getProfileLookups() {
+        return profileLookups.get();
+    }
+
+    void setProfileLookupMillis(long millis) {
+        profileLookupMillis = millis;
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (java.util.stream.Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getLogger":
+                return logger;
+            case "getScheduler":
+                return scheduler.proxy;
+            case "getOfflinePlayer":
+                if (args[0] instanceof String) {
+                    return lookupPlayer((String) args[0]);
+                }
+                return player(String.valueOf(args[0]), (UUID) args[0]);
+            case "getName":
+                return "StubServer";
+            case "getVersion":
+            case "getBukkitVersion":
+                return "stub";
+            default:
+                return objectMethod(proxy, method, args, "StubServer");
+        }
+    }
+
+    private OfflinePlayer lookupPlayer(String name) {
+        profileLookups.incrementAndGet();
+        long delay = profileLookupMillis;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return player(name, UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private OfflinePlayer player(String name, UUID uuid) {
+        String key = name.toLowerCase(Locale.ROOT);
+        return (OfflinePlayer) Proxy.newProxyInstance(OfflinePlayer.class.getClassLoader(),
+                new Class<?>[]{OfflinePlayer.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isWhitelisted":
+                            return whitelist.contains(key);
+                        case "setWhitelisted":
+                            if ((Boolean) args[0]) {
+                                whitelist.add(key);
+                            } else {
+                                whitelist.remove(key);
+                            }
+                            return null;
+                        case "getName":
+                            return name;
+                        case "getUniqueId":
+                            return uuid;
+                        default:
+                            return objectMethod(proxy, method, args, name);
+                    }
+                });
+    }
+
+    // equals / hashCode / toString 以及其余方法的默认返回值
+    private static Object objectMethod(Object proxy, Method method, Object[] args, String name) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return name;
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0F;
+        }
+        if (type == double.class) {
+            return 0D;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    // 插件在服务器之外通过测试构造器创建
+    private static final class StubPlugin extends TRWhiteList {
+        StubPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+            super(loader, description, dataFolder, file);
+        }
+    }
+
+    // 同步任务在调用方执行 tick() 时运行, 异步任务交给后台线程
+    static final class Scheduler implements InvocationHandler {
+        private final BukkitScheduler proxy = (BukkitScheduler) Proxy.newProxyInstance(
+                BukkitScheduler.class.getClassLoader(), new Class<?>[]{BukkitScheduler.class}, this);
+        private final ScheduledExecutorService async =
+                new ScheduledThreadPoolExecutor(2, new NamedThreadFactory("StubServer-Async"));
+        private final ConcurrentLinkedQueue<Task> pending = new ConcurrentLinkedQueue<>();
+        private final CopyOnWriteArrayList<Task> tasks = new CopyOnWriteArrayList<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private volatile long currentTick;
+
+        // 运行一个 tick 的同步任务, 返回耗时纳秒
+        synchronized long tick() {
+            long start = System.nanoTime();
+            currentTick++;
+            Task task;
+            while ((task = pending.poll()) != null) {
+                tasks.add(task);
+            }
+            for (Task scheduled : tasks) {
+                if (scheduled.cancelled) {
+                    tasks.remove(scheduled);
+                } else if (scheduled.nextRun <= currentTick) {
+                    scheduled.body.run();
+                    if (scheduled.period > 0) {
+                        scheduled.nextRun = currentTick + scheduled.period;
+                    } else {
+                        tasks.remove(scheduled);
+                    }
+                }
+            }
+            return System.nanoTime() - start;
+        }
+
+        // 插件停用时 Bukkit 会取消它的全部任务
+        void cancelAll() {
+            pending.clear();
+            for (Task task : tasks) {
+                task.cancelled = true;
+            }
+            tasks.clear();
+        }
+
+        void shutdown() {
+            cancelAll();
+            async.shutdownNow();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            switch (name) {
+                case "runTask":
+                case "runTaskLater":
+                case "runTaskTimer":
+                case "scheduleSyncDelayedTask":
+                case "scheduleSyncRepeatingTask": {
+                    long delay = args.length > 2 ? (Long) args[2] : 0;
+                    long period = args.length > 3 ? (Long) args[3] : 0;
+                    Task task = new Task(nextId.incrementAndGet(), true, period);
+                    task.body = body(args[1], task);
+                    task.nextRun = currentTick + Math.max(1, delay);
+                    pending.add(task);
+                    return returnValue(method, task);
+                }
+                case "runTaskAsynchronously":
+                case "runTaskLaterAsynchronously":
+                case "runTaskTimerAsynchronously": {
+                    long delay = args.length > 2 ? (Long) args[2] * 50 : 0;
+                    long period = args.length > 3 ? (Long) args[3] * 50 : 0;
+                    Task task = new Task(nextId.incrementAndGet(), false, period);
+                    task.body = body(args[1], task);
+                    Runnable guarded = () -> {
+                        if (!task.cancelled) {
+                            task.body.run();
+                        }
+                    };
+                    if (period > 0) {
+                        async.scheduleAtFixedRate(guarded, delay, period, TimeUnit.MILLISECONDS);
+                    } else {
+                        async.schedule(guarded, delay, TimeUnit.MILLISECONDS);
+                    }
+                    return returnValue(method, task);
+                }
+                case "cancelTasks":
+                    cancelAll();
+                    return null;
+                default:
+                    return objectMethod(proxy, method, args, "StubScheduler");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Runnable body(Object target, Task task) {
+            if (target instanceof Runnable) {
+                return (Runnable) target;
+            }
+            if (target instanceof Consumer) {
+                return () -> ((Consumer<BukkitTask>) target).accept(task.handle());
+            }
+            throw new UnsupportedOperationException("Unsupported task type " + target);
+        }
+
+        private static Object returnValue(Method method, Task task) {
+            if (method.getReturnType() == int.class) {
+                return task.id;
+            }
+            return method.getReturnType() == void.class ? null : task.handle();
+        }
+    }
+
+    private static final class Task {
+        final int id;
+        final boolean sync;
+        final long period;
+        Runnable body;
+        volatile long nextRun;
+        volatile boolean cancelled;
+        private BukkitTask handle;
+
+        Task(int id, boolean sync, long period) {
+            this.id = id;
+            this.sync = sync;
+            this.period = period;
+        }
+
+        synchronized BukkitTask handle() {
+            if (handle == null) {
+                handle = (BukkitTask) Proxy.newProxyInstance(BukkitTask.class.getClassLoader(),
+                        new Class<?>[]{BukkitTask.class}, (proxy, method, args) -> {
+                            switch (method.getName()) {
+                                case "cancel":
+                                    cancelled = true;
+                                    return null;
+                                case "isCancelled":
+                                    return cancelled;
+                                case "getTaskId":
+                                    return id;
+                                case "isSync":
+                                    return sync;
+                                default:
+                                    return objectMethod(proxy, method, args, "StubTask-" + id);
+                            }
+                        });
+            }
+            return handle;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tr.webwhitelist;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// applyLanguageSettings: 用内置的 index.html 和 messages 渲染页面与消息
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    private String html;
+    private Map<String, String> messages;
+    private Template page;
+    private Template consoleSuccess;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream in = TRWhiteList.class.getResourceAsStream("/index.html")) {
+            if (in == null) {
+                throw new IOException("index.html not found on the classpath");
+            }
+            html = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        messages = new HashMap<>();
+        try (InputStream in = TRWhiteList.class.getResourceAsStream("/config.yml")) {
+            if (in == null) {
+                throw new IOException("config.yml not found on the classpath");
+            }
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+            ConfigurationSection section = config.getConfigurationSection("messages");
+            for (String key : section.getKeys(false)) {
+                messages.put(key, section.getString(key));
+            }
+        }
+        page = Template.page(html);
+        consoleSuccess = Template.message(messages.get("console_success"));
+    }
+
+    // 重载时的开销: 编译并渲染整页
+    @Benchmark
+    public String applyLanguageSettings() {
+        return Template.page(html).render(messages);
+    }
+
+    @Benchmark
+    public String renderCompiledPage() {
+        return page.render(messages);
+    }
+
+    // 对照: 对每条消息做一次 String.replace 的旧实现
+    @Benchmark
+    public String legacyReplaceLoop() {
+        String result = html;
+        for (Map.Entry<String, String> entry : messages.entrySet()) {
+            result = result.replace("${" + entry.getKey() + "}", entry.getValue());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public String formatMessage() {
+        return consoleSuccess.render("player", "Steve_123");
+    }
+
+    @Benchmark
+    public String legacyFormatMessage() {
+        return messages.get("console_success").replace("{player}", "Steve_123");
+    }
+}
@@ -0,0 +1,73 @@
+package com.tr.webwhitelist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// isValidEmail / isEmailSuffixAllowed, 后缀列表为 1 / 100 / 1000 项
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+    @Param({"1", "100", "1000"})
+    public int suffixes;
+
+    private List<String> suffixList;
+    private EmailDomainMatcher matcher;
+    // 命中最后一个后缀, 对线性扫描最不利
+    private String allowedEmail;
+    private String rejectedEmail;
+
+    @Setup
+    public void setup() {
+        suffixList = new ArrayList<>();
+        for (int i = 0; i < suffixes; i++) {
+            suffixList.add("@school" + i + ".edu.cn");
+        }
+        matcher = EmailDomainMatcher.compile(suffixList);
+        allowedEmail = "steve.minecraft@school" + (suffixes - 1) + ".edu.cn";
+        rejectedEmail = "steve.minecraft@example.com";
+    }
+
+    @Benchmark
+    public boolean isValidEmail() {
+        return TRWhiteList.isValidEmail(allowedEmail);
+    }
+
+    @Benchmark
+    public boolean isEmailSuffixAllowed() {
+        return matcher.matches(allowedEmail);
+    }
+
+    @Benchmark
+    public boolean isEmailSuffixRejected() {
+        return matcher.matches(rejectedEmail);
+    }
+
+    // 对照: 逐个 endsWith 的旧实现
+    @Benchmark
+    public boolean legacySuffixScan() {
+        String email = allowedEmail.toLowerCase();
+        for (String suffix : suffixList) {
+            if (email.endsWith(suffix.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,316 @@
+package com.tr.webwhitelist;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+// 注册审计日志: 请求线程和主线程只把记录放进预先分配的环形缓冲区, 不加锁也不等待;
+// 单独的写线程按批写成 JSON lines 文件 (audit/audit-yyyy-MM-dd.N.jsonl[.gz]), 缓冲区满时丢弃并计数.
+// 每天和每次启动都换一个新文件, 不向已有的 gzip 文件追加: 崩溃时被截断的文件不影响之后的记录
+final class AuditLog {
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long DROP_REPORT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String PREFIX = "audit-";
+    // yyyy-MM-dd
+    private static final int DATE_LENGTH = 10;
+
+    // 槽位中的字段由占到该序号的线程写入, 写完后发布 sequence
+    private static final class Slot {
+        volatile long sequence = -1;
+        long timeMillis;
+        String event;
+        String ip;
+        String username;
+        String email;
+        String outcome;
+        long latencyNanos;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    // 下一个可占用的序号, 生产者用 CAS 推进
+    private final AtomicLong head = new AtomicLong();
+    // 写线程已处理到的序号, 只由写线程推进
+    private volatile long tail;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private final File folder;
+    private final boolean gzip;
+    private final int retentionDays;
+    private final byte[] hashSecret;
+    private final Logger logger;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private MessageDigest sha256;
+    private Mac hmac;
+    private LocalDate currentDay;
+    private Writer out;
+    private long reportedDropped;
+    private long lastDropReport = System.nanoTime();
+    private boolean failing;
+
+    AuditLog(File folder, int bufferSize, boolean gzip, int retentionDays, String hashSecret, Logger logger) {
+        // 容量取 2 的幂, 序号和容量取模用位运算
+        int capacity = Integer.highestOneBit(Math.max(16, Math.min(bufferSize, 1 << 20)) * 2 - 1);
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = capacity - 1;
+        this.folder = folder;
+        this.gzip = gzip;
+        this.retentionDays = retentionDays;
+        this.hashSecret = hashSecret == null || hashSecret.isEmpty() ? null : hashSecret.getBytes(StandardCharsets.UTF_8);
+        this.logger = logger;
+        this.writer = new NamedThreadFactory("TRWhiteList-Audit").newThread(this::runWriter);
+        this.writer.start();
+    }
+
+    // 记录一次注册尝试或白名单结果; 缓冲区已满时丢弃, 不阻塞调用方
+    void record(String event, String ip, String username, String email, String outcome, long latencyNanos) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= slots.length) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = slots[(int) sequence & mask];
+        slot.timeMillis = System.currentTimeMillis();
+        slot.event = event;
+        slot.ip = ip;
+        slot.username = username;
+        slot.email = email;
+        slot.outcome = outcome;
+        slot.latencyNanos = latencyNanos;
+        slot.sequence = sequence;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getWritten() {
+        return written.get();
+    }
+
+    // 写完缓冲区中剩余的记录后关闭文件
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            boolean stopping = !running;
+            int drained = 0;
+            try {
+                drained = drain(line);
+                reportDropped(stopping);
+                if (drained > 0 && out != null) {
+                    out.flush();
+                }
+                failing = false;
+            } catch (IOException | RuntimeException e) {
+                // 写不进去时记录留在缓冲区, 缓冲区满后新记录丢弃并计数; 只在开始失败时输出一次
+                if (!failing) {
+                    failing = true;
+                    logger.log(Level.WARNING, "Could not write audit log, retrying", e);
+                }
+                closeFile();
+            }
+            // 关闭时把剩余的记录写完
+            if (stopping && drained < MAX_BATCH) {
+                break;
+            }
+            if (!stopping && drained < MAX_BATCH) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        closeFile();
+    }
+
+    // 按序号取出已发布的记录; 遇到已占用但尚未写完的槽位就等下一轮
+    private int drain(StringBuilder line) throws IOException {
+        long next = tail;
+        int count = 0;
+        try {
+            while (count < MAX_BATCH) {
+                Slot slot = slots[(int) next & mask];
+                if (slot.sequence != next) {
+                    break;
+                }
+                line.setLength(0);
+                format(slot, line);
+                writeLine(slot.timeMillis, line);
+                // 释放字符串引用
+                slot.ip = slot.username = slot.email = null;
+                next++;
+                count++;
+            }
+        } finally {
+            tail = next;
+        }
+        written.addAndGet(count);
+        return count;
+    }
+
+    private void format(Slot slot, StringBuilder line) {
+        line.append("{\"ts\":\"").append(Instant.ofEpochMilli(slot.timeMillis)).append('"')
+                .append(",\"event\":\"").append(slot.event).append('"');
+        if (slot.ip != null) {
+            Json.quote(line.append(",\"ip\":"), slot.ip);
+        }
+        if (slot.username != null && !slot.username.isEmpty()) {
+            Json.quote(line.append(",\"username\":"), slot.username);
+        }
+        if (slot.email != null && !slot.email.isEmpty()) {
+            line.append(",\"emailHash\":\"");
+            appendEmailHash(slot.email, line);
+            line.append('"');
+        }
+        line.append(",\"outcome\":\"").append(slot.outcome).append('"')
+                .append(",\"latencyMs\":").append(TimeUnit.NANOSECONDS.toMicros(slot.latencyNanos) / 1000.0)
+                .append('}');
+    }
+
+    // 规范化后的邮箱的 SHA-256 (配置了密钥时为 HMAC-SHA256), 取前 16 字节; 同一邮箱的记录可以关联, 日志中不出现明文
+    private void appendEmailHash(String email, StringBuilder line) {
+        byte[] input = EmailRegistry.normalize(email).getBytes(StandardCharsets.UTF_8);
+        byte[] digest;
+        try {
+            if (hashSecret != null) {
+                if (hmac == null) {
+                    hmac = Mac.getInstance("HmacSHA256");
+                    hmac.init(new SecretKeySpec(hashSecret, "HmacSHA256"));
+                }
+                digest = hmac.doFinal(input);
+            } else {
+                if (sha256 == null) {
+                    sha256 = MessageDigest.getInstance("SHA-256");
+                }
+                digest = sha256.digest(input);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < 16; i++) {
+            line.append(HEX[(digest[i] >> 4) & 0xF]).append(HEX[digest[i] & 0xF]);
+        }
+    }
+
+    // 丢弃的条数写进日志, 以便知道哪段时间不完整; 控制台每分钟最多提示一次
+    private void reportDropped(boolean force) throws IOException {
+        long total = dropped.get();
+        long now = System.nanoTime();
+        if (total == reportedDropped || (!force && now - lastDropReport < DROP_REPORT_NANOS)) {
+            return;
+        }
+        long count = total - reportedDropped;
+        reportedDropped = total;
+        lastDropReport = now;
+        long timeMillis = System.currentTimeMillis();
+        StringBuilder line = new StringBuilder(96)
+                .append("{\"ts\":\"").append(Instant.ofEpochMilli(timeMillis)).append('"')
+                .append(",\"event\":\"dropped\",\"count\":").append(count).append('}');
+        writeLine(timeMillis, line);
+        logger.warning("Audit log buffer was full, dropped " + count + " entries");
+    }
+
+    private void writeLine(long timeMillis, CharSequence line) throws IOException {
+        LocalDate day = Instant.ofEpochMilli(timeMillis).atZone(zone).toLocalDate();
+        if (out == null || !day.equals(currentDay)) {
+            rotate(day);
+        }
+        out.append(line).append('\n');
+    }
+
+    // 打开当天第一个未使用的序号; 写入失败后重新打开时也换新文件
+    private void rotate(LocalDate day) throws IOException {
+        closeFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder);
+        }
+        File file;
+        for (int n = 0; ; n++) {
+            String base = PREFIX + day + '.' + n;
+            // 切换 gzip 设置后, 同一序号的另一种文件也视为已使用
+            if (!new File(folder, base + ".jsonl").exists() && !new File(folder, base + ".jsonl.gz").exists()) {
+                file = new File(folder, base + (gzip ? ".jsonl.gz" : ".jsonl"));
+                break;
+            }
+        }
+        OutputStream stream = new FileOutputStream(file);
+        if (gzip) {
+            // 每批 flush 时同步压缩数据, 崩溃后文件中已写出的部分仍可解压
+            stream = new GZIPOutputStream(stream, 8192, true);
+        }
+        out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 16384);
+        currentDay = day;
+        deleteExpired(day);
+    }
+
+    private void deleteExpired(LocalDate today) {
+        if (retentionDays <= 0) {
+            return;
+        }
+        String oldest = today.minusDays(retentionDays).toString();
+        File[] files = folder.listFiles((dir, name) -> name.startsWith(PREFIX) && name.contains(".jsonl")
+                && name.length() >= PREFIX.length() + DATE_LENGTH);
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            // 文件名中的日期按字典序即时间顺序
+            String name = file.getName();
+            String date = name.substring(PREFIX.length(), PREFIX.length() + DATE_LENGTH);
+            if (date.compareTo(oldest) < 0 && !file.delete()) {
+                logger.warning("Could not delete old audit log " + name);
+            }
+        }
+    }
+
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close audit log", e);
+        }
+        out = null;
+        currentDay = null;
+    }
+}
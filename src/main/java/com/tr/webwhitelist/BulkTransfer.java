@@ -0,0 +1,422 @@
+package com.tr.webwhitelist;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 批量导入导出 (玩家名, 邮箱): CSV 或 JSON Lines, 逐行读写, 不把整个文件读进内存
+final class BulkTransfer {
+    // 单行上限, 超过的行按无效处理
+    private static final int MAX_LINE_CHARS = 4096;
+    // 等待在途名额时每隔这么久检查一次是否已取消; 这么长时间没有任何条目完成就放弃
+    private static final long ACQUIRE_POLL_MILLIS = 500;
+    private static final long ACQUIRE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    enum Format {
+        CSV("text/csv; charset=UTF-8", "csv"),
+        JSONL("application/x-ndjson; charset=UTF-8", "jsonl");
+
+        final String contentType;
+        final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        // 按名称或文件扩展名识别, 无法识别时返回 null
+        static Format of(String name) {
+            if (name == null) {
+                return null;
+            }
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (lower.equals("csv") || lower.endsWith(".csv")) {
+                return CSV;
+            }
+            if (lower.equals("jsonl") || lower.equals("ndjson") || lower.endsWith(".jsonl") || lower.endsWith(".ndjson")) {
+                return JSONL;
+            }
+            return null;
+        }
+    }
+
+    // 预留并提交一个导入条目, 邮箱已注册时返回 null
+    interface Submitter {
+        WhitelistQueue.Registration submit(String username, String email);
+    }
+
+    // 一次导入任务: 读取线程提交条目, 同时在途的条目数有上限, 主线程按 tick 预算应用
+    static final class ImportJob {
+        final String source;
+        final Format format;
+        private final long startedNanos = System.nanoTime();
+        private final Semaphore inFlight;
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+        private final AtomicLong queued = new AtomicLong();
+        private final AtomicLong added = new AtomicLong();
+        private final AtomicLong alreadyWhitelisted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong finished = new AtomicLong();
+        private volatile boolean readingDone;
+        private volatile boolean cancelled;
+        private volatile String error;
+        private volatile long elapsedNanos = -1;
+        // 读完并且所有条目都应用后完成
+        final CompletableFuture<ImportJob> done = new CompletableFuture<>();
+
+        ImportJob(String source, Format format, int maxInFlight) {
+            this.source = source;
+            this.format = format;
+            this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        }
+
+        // 在调用线程读取全部输入, 在途条目达到上限时阻塞
+        void run(Reader reader, Submitter submitter) {
+            try {
+                if (format == Format.CSV) {
+                    readCsv(reader, submitter);
+                } else {
+                    readJsonLines(reader, submitter);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            } finally {
+                readingDone = true;
+                checkDone();
+            }
+        }
+
+        private void readCsv(Reader reader, Submitter submitter) throws IOException, InterruptedException {
+            StringBuilder line = new StringBuilder();
+            int usernameColumn = 0;
+            int emailColumn = 1;
+            boolean first = true;
+            while (readLine(reader, line)) {
+                List<String> cells = parseCsvLine(line);
+                if (cells != null && cells.size() == 1 && cells.get(0).trim().isEmpty()) {
+                    continue;
+                }
+                if (first) {
+                    first = false;
+                    // 可选的表头, 指定列的顺序
+                    int u = indexOfIgnoreCase(cells, "username");
+                    int e = indexOfIgnoreCase(cells, "email");
+                    if (u >= 0 && e >= 0) {
+                        usernameColumn = u;
+                        emailColumn = e;
+                        continue;
+                    }
+                }
+                read.incrementAndGet();
+                if (cells == null) {
+                    invalid.incrementAndGet();
+                    continue;
+                }
+                submit(submitter,
+                        usernameColumn < cells.size() ? cells.get(usernameColumn) : "",
+                        emailColumn < cells.size() ? cells.get(emailColumn) : "");
+            }
+        }
+
+        private void readJsonLines(Reader reader, Submitter submitter) throws IOException, InterruptedException {
+            FormParser parser = new FormParser(MAX_LINE_CHARS * 4, 320);
+            StringBuilder line = new StringBuilder();
+            while (readLine(reader, line)) {
+                if (line.length() == 0 || line.toString().trim().isEmpty()) {
+                    continue;
+                }
+                read.incrementAndGet();
+                if (line.length() > MAX_LINE_CHARS) {
+                    invalid.incrementAndGet();
+                    continue;
+                }
+                FormParser.Form form;
+                try {
+                    form = parser.parseJson(line.toString().getBytes(StandardCharsets.UTF_8));
+                } catch (FormParser.FormException e) {
+                    invalid.incrementAndGet();
+                    continue;
+                }
+                submit(submitter, form.username, form.email);
+            }
+        }
+
+        private void submit(Submitter submitter, String username, String email) throws IOException, InterruptedException {
+            username = username.trim();
+            email = email.trim();
+            if (!TRWhiteList.isValidUsername(username) || !TRWhiteList.isValidEmail(email)) {
+                invalid.incrementAndGet();
+                return;
+            }
+            acquire();
+            WhitelistQueue.Registration registration = submitter.submit(username, email);
+            if (registration == null) {
+                inFlight.release();
+                duplicates.incrementAndGet();
+                return;
+            }
+            queued.incrementAndGet();
+            registration.result.whenComplete((outcome, e) -> {
+                if (outcome == WhitelistQueue.Outcome.ADDED) {
+                    added.incrementAndGet();
+                } else if (outcome == WhitelistQueue.Outcome.ALREADY_WHITELISTED) {
+                    alreadyWhitelisted.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+                finished.incrementAndGet();
+                inFlight.release();
+                checkDone();
+            });
+        }
+
+        // 在途条目达到上限时等待, 期间任务被取消或长时间没有进展就中止读取
+        private void acquire() throws IOException, InterruptedException {
+            long waited = 0;
+            while (!cancelled) {
+                if (inFlight.tryAcquire(ACQUIRE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                waited += ACQUIRE_POLL_MILLIS;
+                if (waited >= ACQUIRE_TIMEOUT_MILLIS) {
+                    throw new IOException("No entries were applied for " + TimeUnit.MILLISECONDS.toSeconds(waited) + " s");
+                }
+            }
+            throw new IOException(error);
+        }
+
+        // 插件关闭时调用: 读取线程在下一个条目处停止, 不再等待已提交但不会被应用的条目
+        void cancel(String reason) {
+            fail(reason);
+            cancelled = true;
+            if (!done.isDone()) {
+                elapsedNanos = System.nanoTime() - startedNanos;
+                done.complete(this);
+            }
+        }
+
+        private void fail(String reason) {
+            if (error == null) {
+                error = reason;
+            }
+        }
+
+        private void checkDone() {
+            if (readingDone && finished.get() == queued.get() && !done.isDone()) {
+                elapsedNanos = System.nanoTime() - startedNanos;
+                done.complete(this);
+            }
+        }
+
+        boolean isDone() {
+            return done.isDone();
+        }
+
+        private String state() {
+            if (isDone()) {
+                return error != null ? "failed" : "finished";
+            }
+            return readingDone ? "applying" : "reading";
+        }
+
+        private long elapsedSeconds() {
+            long elapsed = elapsedNanos;
+            return TimeUnit.NANOSECONDS.toSeconds(elapsed >= 0 ? elapsed : System.nanoTime() - startedNanos);
+        }
+
+        // 控制台和聊天栏显示的进度
+        String describe() {
+            String state = state();
+            StringBuilder out = new StringBuilder()
+                    .append("Import of ").append(source).append(' ').append(state)
+                    .append(": read ").append(read.get())
+                    .append(", queued ").append(queued.get())
+                    .append(", applied ").append(finished.get())
+                    .append(" (added ").append(added.get())
+                    .append(", already whitelisted ").append(alreadyWhitelisted.get())
+                    .append(", failed ").append(failed.get())
+                    .append("), duplicates ").append(duplicates.get())
+                    .append(", invalid ").append(invalid.get())
+                    .append(", ").append(elapsedSeconds()).append(" s");
+            if (error != null) {
+                out.append(", error: ").append(error);
+            }
+            return out.toString();
+        }
+
+        String toJson() {
+            String state = state();
+            StringBuilder out = new StringBuilder(256).append('{')
+                    .append("\"source\":");
+            Json.quote(out, source)
+                    .append(",\"format\":\"").append(format.extension).append('"')
+                    .append(",\"state\":\"").append(state).append('"')
+                    .append(",\"read\":").append(read.get())
+                    .append(",\"queued\":").append(queued.get())
+                    .append(",\"applied\":").append(finished.get())
+                    .append(",\"added\":").append(added.get())
+                    .append(",\"alreadyWhitelisted\":").append(alreadyWhitelisted.get())
+                    .append(",\"failed\":").append(failed.get())
+                    .append(",\"duplicates\":").append(duplicates.get())
+                    .append(",\"invalid\":").append(invalid.get())
+                    .append(",\"elapsedSeconds\":").append(elapsedSeconds());
+            if (error != null) {
+                Json.quote(out.append(",\"error\":"), error);
+            }
+            return out.append('}').toString();
+        }
+    }
+
+    // 把存储中的所有记录按格式写出, 返回写出的条数; 先写到临时文件, 存储只在这一步被读取,
+    // 之后再按 out 的速度复制, 慢的客户端不会让存储一直持有锁
+    static long export(EmailStorage storage, Format format, Writer out) throws IOException {
+        Path spool = Files.createTempFile("trwhitelist-export", "." + format.extension);
+        try {
+            long count;
+            try (Writer writer = Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+                count = write(storage, format, writer);
+            }
+            try (Reader reader = Files.newBufferedReader(spool, StandardCharsets.UTF_8)) {
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            out.flush();
+            return count;
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    private static long write(EmailStorage storage, Format format, Writer out) throws IOException {
+        long[] count = new long[1];
+        IOException[] failure = new IOException[1];
+        if (format == Format.CSV) {
+            out.write("username,email\n");
+        }
+        storage.forEach((email, username) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                if (format == Format.CSV) {
+                    out.write(csvCell(username));
+                    out.write(',');
+                    out.write(csvCell(email));
+                    out.write('\n');
+                } else {
+                    out.write(Json.object("username", username, "email", email));
+                    out.write('\n');
+                }
+                count[0]++;
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        out.flush();
+        return count[0];
+    }
+
+    // 读取一行到 line, 去掉行尾的 \r; 超长的行截断并继续读到行尾; 没有更多内容时返回 false
+    static boolean readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c;
+        boolean any = false;
+        while ((c = reader.read()) != -1) {
+            any = true;
+            if (c == '\n') {
+                break;
+            }
+            if (line.length() <= MAX_LINE_CHARS) {
+                line.append((char) c);
+            }
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return any;
+    }
+
+    // RFC 4180: 引号包围的字段中 "" 表示一个引号; 行过长或引号不匹配时返回 null
+    static List<String> parseCsvLine(CharSequence line) {
+        if (line.length() > MAX_LINE_CHARS) {
+            return null;
+        }
+        List<String> cells = new ArrayList<>(2);
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        cell.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"' && cell.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    private static String csvCell(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+
+    private static int indexOfIgnoreCase(List<String> cells, String name) {
+        if (cells == null) {
+            return -1;
+        }
+        for (int i = 0; i < cells.size(); i++) {
+            if (cells.get(i).trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private BulkTransfer() {
+    }
+}
@@ -0,0 +1,81 @@
+package com.tr.webwhitelist;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// 允许的邮箱域名, 加载时构建成哈希集合, 检查耗时只和邮箱长度有关
+//   "@qq.com" 或 "qq.com"     只允许该域名
+//   "*.edu.cn" 或 ".edu.cn"   允许该域名下的任意子域名
+final class EmailDomainMatcher {
+    private final Set<String> domains;
+    private final Set<String> wildcardDomains;
+
+    private EmailDomainMatcher(Set<String> domains, Set<String> wildcardDomains) {
+        this.domains = domains;
+        this.wildcardDomains = wildcardDomains;
+    }
+
+    static EmailDomainMatcher compile(List<String> suffixes) {
+        Set<String> domains = new HashSet<>();
+        Set<String> wildcardDomains = new HashSet<>();
+        if (suffixes != null) {
+            for (String suffix : suffixes) {
+                if (suffix == null) {
+                    continue;
+                }
+                String value = suffix.trim().toLowerCase(Locale.ROOT);
+                if (value.startsWith("*.")) {
+                    addIfPresent(wildcardDomains, value.substring(2));
+                } else if (value.startsWith(".")) {
+                    addIfPresent(wildcardDomains, value.substring(1));
+                } else if (value.startsWith("@")) {
+                    addIfPresent(domains, value.substring(1));
+                } else {
+                    addIfPresent(domains, value);
+                }
+            }
+        }
+        return new EmailDomainMatcher(Collections.unmodifiableSet(domains), Collections.unmodifiableSet(wildcardDomains));
+    }
+
+    private static void addIfPresent(Set<String> set, String domain) {
+        if (!domain.isEmpty()) {
+            set.add(domain);
+        }
+    }
+
+    // 没有配置任何后缀时允许所有邮箱
+    boolean isEmpty() {
+        return domains.isEmpty() && wildcardDomains.isEmpty();
+    }
+
+    boolean matches(String email) {
+        if (isEmpty()) {
+            return true;
+        }
+        int at = email.lastIndexOf('@');
+        if (at < 0 || at == email.length() - 1) {
+            return false;
+        }
+        String domain = email.substring(at + 1).toLowerCase(Locale.ROOT);
+        if (domains.contains(domain)) {
+            return true;
+        }
+        if (wildcardDomains.isEmpty()) {
+            return false;
+        }
+
+        // 依次检查每一级父域名
+        int dot = domain.indexOf('.');
+        while (dot >= 0 && dot < domain.length() - 1) {
+            if (wildcardDomains.contains(domain.substring(dot + 1))) {
+                return true;
+            }
+            dot = domain.indexOf('.', dot + 1);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,36 @@
+package com.tr.webwhitelist;
+
+import java.util.Locale;
+
+// 已注册邮箱的并发索引, 网页线程在调度主线程任务之前原子地预留邮箱;
+// 参数可以是未规范化的邮箱, 实现自行规范化
+interface EmailRegistry {
+    static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // 按 email-index.mode 创建
+    static EmailRegistry create(String mode) {
+        return "hashed".equalsIgnoreCase(mode) ? new HashedEmailRegistry() : new StringEmailRegistry();
+    }
+
+    boolean contains(String email);
+
+    // 预留邮箱, 已被注册或已被其他请求预留时返回 false
+    boolean reserve(String email);
+
+    // 添加白名单失败时撤销预留
+    void release(String email);
+
+    // 从存储加载已有记录
+    void load(String email);
+
+    void clear();
+
+    int size();
+
+    // 索引占用的堆内存估计值
+    long estimatedHeapBytes();
+
+    String mode();
+}
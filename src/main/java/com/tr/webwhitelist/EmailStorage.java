@@ -0,0 +1,35 @@
+package com.tr.webwhitelist;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// 已注册邮箱的持久化存储
+interface EmailStorage {
+    // 依次读出所有 (邮箱, 玩家名), 旧数据的玩家名为空字符串
+    void forEach(BiConsumer<String, String> consumer) throws IOException;
+
+    // 在多个服务器共用的存储中原子地占用邮箱, 已被占用时返回 false; 本地存储由 EmailRegistry 保证, 总是返回 true
+    default boolean claim(String email, String username) throws IOException {
+        return true;
+    }
+
+    // 注册没有成功, 撤销 claim
+    default void unclaim(String email) {
+    }
+
+    // 记录一个新注册的邮箱
+    void append(String email, String username);
+
+    // 清空所有记录
+    void clear();
+
+    // 把尚未写入磁盘的数据写完
+    void flush();
+
+    // forEach 之后调用, 把其他服务器新注册和撤销的邮箱分别交给 added / removed; 本地存储没有其他来源
+    default void startSync(Consumer<String> added, Consumer<String> removed) {
+    }
+
+    void close();
+}
@@ -0,0 +1,91 @@
+package com.tr.webwhitelist;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 有容量上限的 LRU 缓存, 条目超过存活时间后淘汰
+final class ExpiringCache<K, V> {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    ExpiringCache(int maxSize, long ttl, TimeUnit unit) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > ExpiringCache.this.maxSize || eldest.getValue().isExpired(System.nanoTime());
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    // 只有不存在 (或已过期) 时才放入, 返回当前有效的值
+    synchronized V putIfAbsent(K key, V value) {
+        V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        put(key, value);
+        return value;
+    }
+
+    synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        return entry != null && !entry.isExpired(System.nanoTime()) ? entry.value : null;
+    }
+
+    // 清理所有过期条目
+    synchronized int evictExpired() {
+        long now = System.nanoTime();
+        int removed = 0;
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.tr.webwhitelist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+// 注册表单解析器: 通过固定缓冲区流式读取请求体, 限制长度, 一次遍历完成百分号解码,
+// 只提取 username / email / code 三个字段; 也接受 JSON 请求体
+final class FormParser {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int MAX_KEY_BYTES = 16;
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    // 每个线程复用的读缓冲区和键值缓冲区, 值缓冲区按需要的最大长度增长
+    private static final class Buffers {
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        final byte[] key = new byte[MAX_KEY_BYTES];
+        byte[] value = new byte[0];
+
+        byte[] value(int size) {
+            if (value.length < size) {
+                value = new byte[size];
+            }
+            return value;
+        }
+    }
+
+    // 解析失败, status 为应返回的 HTTP 状态码
+    static final class FormException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        FormException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    static final class Form {
+        String username = "";
+        String email = "";
+        String code = "";
+
+        void set(String key, String value) {
+            switch (key) {
+                case "username":
+                    username = value;
+                    break;
+                case "email":
+                    email = value;
+                    break;
+                case "code":
+                    code = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private final int maxBodyBytes;
+    private final int maxFieldBytes;
+
+    FormParser(int maxBodyBytes, int maxFieldBytes) {
+        this.maxBodyBytes = Math.max(64, maxBodyBytes);
+        this.maxFieldBytes = Math.max(16, maxFieldBytes);
+    }
+
+    int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    Form parse(InputStream in, String contentType) throws IOException {
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("application/json")) {
+            return parseJson(readBounded(in));
+        }
+        return parseUrlEncoded(in);
+    }
+
+    // application/x-www-form-urlencoded
+    Form parseUrlEncoded(InputStream in) throws IOException {
+        Form form = new Form();
+        Buffers buffers = BUFFERS.get();
+        byte[] chunk = buffers.chunk;
+        byte[] key = buffers.key;
+        byte[] value = buffers.value(maxFieldBytes);
+        int keyLength = 0;
+        int valueLength = 0;
+        boolean inValue = false;
+        // 未知或过长的键, 跳过它的值
+        boolean skipping = false;
+        int escape = -1;
+        int escapeHigh = 0;
+        int total = 0;
+
+        int read;
+        while ((read = in.read(chunk, 0, CHUNK_SIZE)) != -1) {
+            total += read;
+            if (total > maxBodyBytes) {
+                throw new FormException(413, "Request body too large");
+            }
+            for (int i = 0; i < read; i++) {
+                int b = chunk[i] & 0xff;
+                if ((b == '&' || (b == '=' && !inValue)) && escape >= 0 && !skipping) {
+                    throw new FormException(400, "Malformed percent escape");
+                }
+                if (b == '&') {
+                    if (inValue && !skipping) {
+                        store(form, key, keyLength, value, valueLength);
+                    }
+                    keyLength = 0;
+                    valueLength = 0;
+                    inValue = false;
+                    skipping = false;
+                    continue;
+                }
+                if (b == '=' && !inValue) {
+                    inValue = true;
+                    skipping = skipping || !isKnownKey(key, keyLength);
+                    continue;
+                }
+                if (skipping) {
+                    continue;
+                }
+
+                // 百分号解码
+                int decoded;
+                if (escape >= 0) {
+                    int digit = Character.digit(b, 16);
+                    if (digit < 0) {
+                        throw new FormException(400, "Malformed percent escape");
+                    }
+                    if (escape == 0) {
+                        escapeHigh = digit;
+                        escape = 1;
+                        continue;
+                    }
+                    decoded = (escapeHigh << 4) | digit;
+                    escape = -1;
+                } else if (b == '%') {
+                    escape = 0;
+                    continue;
+                } else if (b == '+') {
+                    decoded = ' ';
+                } else {
+                    decoded = b;
+                }
+
+                if (inValue) {
+                    if (valueLength == maxFieldBytes) {
+                        throw new FormException(413, "Form field too large");
+                    }
+                    value[valueLength++] = (byte) decoded;
+                } else if (keyLength == key.length) {
+                    skipping = true;
+                } else {
+                    key[keyLength++] = (byte) decoded;
+                }
+            }
+        }
+        if (escape >= 0) {
+            throw new FormException(400, "Malformed percent escape");
+        }
+        if (inValue && !skipping) {
+            store(form, key, keyLength, value, valueLength);
+        }
+        return form;
+    }
+
+    private static boolean isKnownKey(byte[] key, int length) {
+        return matches(key, length, "username") || matches(key, length, "email") || matches(key, length, "code");
+    }
+
+    private static boolean matches(byte[] key, int length, String name) {
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void store(Form form, byte[] key, int keyLength, byte[] value, int valueLength) {
+        form.set(new String(key, 0, keyLength, StandardCharsets.US_ASCII), new String(value, 0, valueLength, StandardCharsets.UTF_8));
+    }
+
+    private byte[] readBounded(InputStream in) throws IOException {
+        byte[] chunk = BUFFERS.get().chunk;
+        byte[] body = new byte[Math.min(maxBodyBytes, CHUNK_SIZE)];
+        int length = 0;
+        int read;
+        while ((read = in.read(chunk, 0, CHUNK_SIZE)) != -1) {
+            if (length + read > maxBodyBytes) {
+                throw new FormException(413, "Request body too large");
+            }
+            if (length + read > body.length) {
+                byte[] grown = new byte[Math.min(maxBodyBytes, Math.max(body.length * 2, length + read))];
+                System.arraycopy(body, 0, grown, 0, length);
+                body = grown;
+            }
+            System.arraycopy(chunk, 0, body, length, read);
+            length += read;
+        }
+        return length == body.length ? body : Arrays.copyOf(body, length);
+    }
+
+    // 只支持顶层对象, 已知字段的值可以是字符串或数字, 其他字段直接跳过
+    Form parseJson(byte[] body) throws FormException {
+        JsonReader reader = new JsonReader(new String(body, StandardCharsets.UTF_8), maxFieldBytes);
+        Form form = new Form();
+        reader.skipWhitespace();
+        reader.expect('{');
+        reader.skipWhitespace();
+        if (reader.peek() == '}') {
+            reader.next();
+            reader.expectEnd();
+            return form;
+        }
+        while (true) {
+            reader.skipWhitespace();
+            String key = reader.readString(maxFieldBytes);
+            reader.skipWhitespace();
+            reader.expect(':');
+            reader.skipWhitespace();
+            boolean known = "username".equals(key) || "email".equals(key) || "code".equals(key);
+            char c = reader.peek();
+            if (known && c == '"') {
+                form.set(key, reader.readString(maxFieldBytes));
+            } else if (known && (c == '-' || (c >= '0' && c <= '9'))) {
+                form.set(key, reader.readNumber());
+            } else {
+                reader.skipValue(0);
+            }
+            reader.skipWhitespace();
+            char separator = reader.next();
+            if (separator == '}') {
+                break;
+            }
+            if (separator != ',') {
+                throw new FormException(400, "Malformed JSON");
+            }
+        }
+        reader.expectEnd();
+        return form;
+    }
+
+    private static final class JsonReader {
+        private static final int MAX_DEPTH = 16;
+
+        private final String text;
+        private final int maxStringLength;
+        private int position;
+
+        JsonReader(String text, int maxStringLength) {
+            this.text = text;
+            this.maxStringLength = maxStringLength;
+        }
+
+        char peek() throws FormException {
+            if (position >= text.length()) {
+                throw new FormException(400, "Unexpected end of JSON");
+            }
+            return text.charAt(position);
+        }
+
+        char next() throws FormException {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        void expect(char expected) throws FormException {
+            if (next() != expected) {
+                throw new FormException(400, "Malformed JSON");
+            }
+        }
+
+        void expectEnd() throws FormException {
+            skipWhitespace();
+            if (position != text.length()) {
+                throw new FormException(400, "Trailing data after JSON");
+            }
+        }
+
+        void skipWhitespace() {
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        String readString(int maxLength) throws FormException {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return builder.toString();
+                }
+                if (c == '\\') {
+                    char escaped = next();
+                    switch (escaped) {
+                        case '"':
+                        case '\\':
+                        case '/':
+                            c = escaped;
+                            break;
+                        case 'b':
+                            c = '\b';
+                            break;
+                        case 'f':
+                            c = '\f';
+                            break;
+                        case 'n':
+                            c = '\n';
+                            break;
+                        case 'r':
+                            c = '\r';
+                            break;
+                        case 't':
+                            c = '\t';
+                            break;
+                        case 'u':
+                            c = readUnicodeEscape();
+                            break;
+                        default:
+                            throw new FormException(400, "Malformed JSON escape");
+                    }
+                } else if (c < 0x20) {
+                    throw new FormException(400, "Control character in JSON string");
+                }
+                if (builder.length() >= maxLength) {
+                    throw new FormException(413, "JSON field too large");
+                }
+                builder.append(c);
+            }
+        }
+
+        private char readUnicodeEscape() throws FormException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(next(), 16);
+                if (digit < 0) {
+                    throw new FormException(400, "Malformed JSON escape");
+                }
+                value = (value << 4) | digit;
+            }
+            return (char) value;
+        }
+
+        String readNumber() throws FormException {
+            int start = position;
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            if (position - start > maxStringLength) {
+                throw new FormException(413, "JSON field too large");
+            }
+            return text.substring(start, position);
+        }
+
+        void skipValue(int depth) throws FormException {
+            if (depth > MAX_DEPTH) {
+                throw new FormException(400, "JSON nested too deeply");
+            }
+            char c = peek();
+            if (c == '"') {
+                readString(Integer.MAX_VALUE);
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                position++;
+                skipWhitespace();
+                if (peek() == close) {
+                    position++;
+                    return;
+                }
+                while (true) {
+                    skipWhitespace();
+                    if (close == '}') {
+                        readString(Integer.MAX_VALUE);
+                        skipWhitespace();
+                        expect(':');
+                        skipWhitespace();
+                    }
+                    skipValue(depth + 1);
+                    skipWhitespace();
+                    char separator = next();
+                    if (separator == close) {
+                        return;
+                    }
+                    if (separator != ',') {
+                        throw new FormException(400, "Malformed JSON");
+                    }
+                }
+            } else if (text.startsWith("true", position)) {
+                position += 4;
+            } else if (text.startsWith("false", position)) {
+                position += 5;
+            } else if (text.startsWith("null", position)) {
+                position += 4;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                readNumber();
+            } else {
+                throw new FormException(400, "Malformed JSON");
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.tr.webwhitelist;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 只保存规范化邮箱的 64 位哈希, 开放寻址线性探测, 每个条目约 16 字节;
+// 100 万个邮箱时两个不同邮箱哈希相同的概率约为 3e-8, 冲突时后注册的邮箱会被当作已注册
+final class HashedEmailRegistry implements EmailRegistry {
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // 读操作无锁, 扩容时整体替换
+    private volatile AtomicLongArray table = new AtomicLongArray(INITIAL_CAPACITY);
+    // 以下字段只在持有锁时修改
+    private volatile int size;
+    private int tombstones;
+
+    @Override
+    public boolean contains(String email) {
+        long hash = hash(email);
+        AtomicLongArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = index(hash, mask); ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == hash) {
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean reserve(String email) {
+        long hash = hash(email);
+        AtomicLongArray slots = table;
+        int mask = slots.length() - 1;
+        int free = -1;
+        for (int i = index(hash, mask); ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == hash) {
+                return false;
+            }
+            if (slot == TOMBSTONE) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (slot == EMPTY) {
+                if (free < 0) {
+                    free = i;
+                } else {
+                    tombstones--;
+                }
+                break;
+            }
+        }
+        slots.set(free, hash);
+        size++;
+        // 负载因子 0.75, 墓碑也计入; 墓碑较多时按原大小重建
+        if ((long) (size + tombstones) * 4 > (long) slots.length() * 3) {
+            resize(size * 2 > slots.length() ? slots.length() * 2 : slots.length());
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void release(String email) {
+        long hash = hash(email);
+        AtomicLongArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = index(hash, mask); ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == hash) {
+                slots.set(i, TOMBSTONE);
+                size--;
+                tombstones++;
+                return;
+            }
+            if (slot == EMPTY) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void load(String email) {
+        reserve(email);
+    }
+
+    @Override
+    public synchronized void clear() {
+        table = new AtomicLongArray(INITIAL_CAPACITY);
+        size = 0;
+        tombstones = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long estimatedHeapBytes() {
+        return 16L + (long) table.length() * Long.BYTES;
+    }
+
+    @Override
+    public String mode() {
+        return "hashed";
+    }
+
+    // 在新表中重新插入所有条目并丢弃墓碑, 读线程在替换前继续使用旧表
+    private void resize(int capacity) {
+        AtomicLongArray old = table;
+        AtomicLongArray next = new AtomicLongArray(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.length(); j++) {
+            long slot = old.get(j);
+            if (slot == EMPTY || slot == TOMBSTONE) {
+                continue;
+            }
+            int i = index(slot, mask);
+            while (next.get(i) != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            next.set(i, slot);
+        }
+        tombstones = 0;
+        table = next;
+    }
+
+    private static int index(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // 与对 normalize(email) 求哈希结果相同; 纯 ASCII 时只折叠 A-Z, 不创建新字符串.
+    // 含非 ASCII 字符时按 normalize 的结果计算, 因为逐字符的 Character.toLowerCase
+    // 与 String.toLowerCase(Locale.ROOT) 不一致 (例如 U+0130 会变成两个字符)
+    static long hash(String email) {
+        int start = 0;
+        int end = email.length();
+        while (start < end && email.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && email.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        // FNV-1a
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            char c = email.charAt(i);
+            if (c >= 0x80) {
+                return hashNormalized(EmailRegistry.normalize(email));
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h = (h ^ c) * 0x100000001b3L;
+        }
+        return finish(h);
+    }
+
+    private static long hashNormalized(String normalized) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            h = (h ^ normalized.charAt(i)) * 0x100000001b3L;
+        }
+        return finish(h);
+    }
+
+    private static long finish(long h) {
+        // murmur3 fmix64, 让低位分布均匀
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        if (h == EMPTY) {
+            return 1L;
+        }
+        return h == TOMBSTONE ? TOMBSTONE + 1 : h;
+    }
+}
@@ -0,0 +1,563 @@
+package com.tr.webwhitelist;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+// 多个服务器共用的数据库存储: 邮箱上有唯一约束, 注册时用 INSERT 原子占用;
+// 本地的 EmailRegistry 作为缓存, 按自增 id 定期拉取其他服务器新注册的邮箱.
+// 撤销和清空在 <table>_deleted 中留下记录, 其他服务器同样按 id 拉取后从缓存中移除.
+// 自增 id 在插入时分配, 提交顺序可能不同: 较小的 id 可能在较大的 id 之后才提交. 拉取时跳过的 id 记为空号,
+// 之后每次拉取再查一遍, 一分钟后仍不存在就当作失败的插入 (例如唯一约束冲突) 留下的空号.
+// 启动时 forEach 读取整张表, 恰好在读取期间提交的乱序行要等下次启动才会读到
+final class JdbcEmailStorage implements EmailStorage {
+    // 留出 _deleted 后缀的长度, 数据库的表名一般最长 64 个字符
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]{0,55}");
+    private static final int BATCH_SIZE = 1000;
+    // 合法玩家名最多 16 个字符, 旧数据中更长的名字迁移时留空
+    private static final int MAX_USERNAME_CHARS = 64;
+    private static final long FLUSH_TIMEOUT_SECONDS = 10;
+    // 删除记录只需保留到所有在线的服务器都拉取过; 离线更久的服务器启动时会重新读取整张表
+    private static final long TOMBSTONE_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+    // 单行插入的事务很短, 空号一分钟后仍不存在就不再查
+    private static final long GAP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int MAX_GAPS = 1024;
+    private static final int GAPS_PER_QUERY = 100;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String table;
+    private final String deletedTable;
+    private final Logger logger;
+    private final Metrics.Histogram flushTimes;
+    private final long syncMillis;
+    private final BlockingQueue<Connection> idle;
+    // 撤销和清空不阻塞主线程, 按提交顺序执行
+    private final ExecutorService writer =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("TRWhiteList-Jdbc"));
+    private final ScheduledExecutorService sync =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("TRWhiteList-Sync"));
+    // 主表和删除记录表各自读到的位置
+    private final Cursor registered;
+    private final Cursor deleted;
+    private volatile boolean syncFailing;
+
+    JdbcEmailStorage(String url, String driver, String user, String password, String table, int poolSize,
+                     long syncMillis, Logger logger, Metrics.Histogram flushTimes) throws IOException {
+        if (url == null || url.isEmpty()) {
+            throw new IOException("email-storage.jdbc.url is not set");
+        }
+        if (!TABLE_NAME.matcher(table).matches()) {
+            throw new IOException("Invalid email-storage.jdbc.table '" + table + "'");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.table = table;
+        this.deletedTable = table + "_deleted";
+        this.registered = new Cursor("SELECT id, email FROM " + table, "id");
+        this.deleted = new Cursor("SELECT d.id, d.email, t.id FROM " + deletedTable + " d"
+                + " LEFT JOIN " + table + " t ON t.email = d.email", "d.id");
+        this.logger = logger;
+        this.flushTimes = flushTimes;
+        this.syncMillis = Math.max(1000, syncMillis);
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+
+        try {
+            // 服务器自带 SQLite 和 MySQL 驱动, 其他数据库需要指定驱动类
+            if (driver != null && !driver.isEmpty()) {
+                Class.forName(driver);
+            }
+            Connection connection = borrow();
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(createTableSql());
+                statement.executeUpdate(createDeletedTableSql());
+                // 启动时清理过期的删除记录
+                try (PreparedStatement prune = connection.prepareStatement(
+                        "DELETE FROM " + deletedTable + " WHERE deleted_at < ?")) {
+                    prune.setLong(1, System.currentTimeMillis() - TOMBSTONE_RETENTION_MILLIS);
+                    prune.executeUpdate();
+                }
+            } catch (SQLException e) {
+                discard(connection);
+                throw e;
+            }
+            release(connection);
+        } catch (ClassNotFoundException | SQLException e) {
+            close();
+            throw new IOException("Could not open " + table + " at " + url, e);
+        }
+    }
+
+    // 自增主键的写法因数据库而异
+    private String idColumnSql() {
+        String lower = url.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("jdbc:sqlite:")) {
+            return "id INTEGER PRIMARY KEY AUTOINCREMENT";
+        }
+        if (lower.startsWith("jdbc:postgresql:")) {
+            return "id BIGSERIAL PRIMARY KEY";
+        }
+        return "id BIGINT AUTO_INCREMENT PRIMARY KEY";
+    }
+
+    private String createTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (" + idColumnSql()
+                + ", email VARCHAR(320) NOT NULL UNIQUE"
+                + ", username VARCHAR(" + MAX_USERNAME_CHARS + ") DEFAULT '' NOT NULL"
+                + ", created_at BIGINT NOT NULL)";
+    }
+
+    // 同一邮箱可以被撤销多次, 不加唯一约束
+    private String createDeletedTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + deletedTable + " (" + idColumnSql()
+                + ", email VARCHAR(320) NOT NULL"
+                + ", deleted_at BIGINT NOT NULL)";
+    }
+
+    // 表为空时才需要从本地存储迁移
+    boolean isEmpty() throws IOException {
+        Connection connection = borrowOrThrow();
+        try (Statement statement = connection.createStatement()) {
+            statement.setMaxRows(1);
+            boolean empty;
+            try (ResultSet rows = statement.executeQuery("SELECT id FROM " + table)) {
+                empty = !rows.next();
+            }
+            release(connection);
+            return empty;
+        } catch (SQLException e) {
+            discard(connection);
+            throw new IOException("Could not read " + table, e);
+        }
+    }
+
+    // 在一个事务中分批写入另一个存储的数据, 重复的邮箱只写一次
+    int importFrom(EmailStorage source) throws IOException {
+        int[] imported = new int[1];
+        Connection connection = borrowOrThrow();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + table + " (email, username, created_at) VALUES (?, ?, ?)")) {
+                long now = System.currentTimeMillis();
+                SQLException[] failure = new SQLException[1];
+                int[] dropped = new int[1];
+                Set<String> seen = new HashSet<>();
+                source.forEach((email, username) -> {
+                    String normalized = EmailRegistry.normalize(email);
+                    if (failure[0] != null || !seen.add(normalized)) {
+                        return;
+                    }
+                    try {
+                        String name = username == null ? "" : username;
+                        if (name.length() > MAX_USERNAME_CHARS) {
+                            name = "";
+                            dropped[0]++;
+                        }
+                        insert.setString(1, normalized);
+                        insert.setString(2, name);
+                        insert.setLong(3, now);
+                        insert.addBatch();
+                        if (++imported[0] % BATCH_SIZE == 0) {
+                            insert.executeBatch();
+                        }
+                    } catch (SQLException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                insert.executeBatch();
+                if (dropped[0] > 0) {
+                    logger.warning("Dropped " + dropped[0] + " player names longer than " + MAX_USERNAME_CHARS
+                            + " characters while importing into " + table);
+                }
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+            release(connection);
+        } catch (SQLException e) {
+            discard(connection);
+            throw new IOException("Could not import emails into " + table, e);
+        } catch (IOException e) {
+            discard(connection);
+            throw e;
+        }
+        return imported[0];
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> consumer) throws IOException {
+        Connection connection = borrowOrThrow();
+        long maxId = 0;
+        long maxDeletedId = 0;
+        // 先记下删除记录的位置, 读取期间发生的撤销之后由 pull 补上
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT MAX(id) FROM " + deletedTable)) {
+            if (rows.next()) {
+                maxDeletedId = rows.getLong(1);
+            }
+        } catch (SQLException e) {
+            discard(connection);
+            throw new IOException("Could not read " + deletedTable, e);
+        }
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, email, username FROM " + table + " ORDER BY id")) {
+            select.setFetchSize(BATCH_SIZE);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    maxId = rows.getLong(1);
+                    String username = rows.getString(3);
+                    consumer.accept(rows.getString(2), username == null ? "" : username);
+                }
+            }
+            release(connection);
+        } catch (SQLException e) {
+            discard(connection);
+            throw new IOException("Could not read " + table, e);
+        }
+        registered.reset(maxId);
+        deleted.reset(maxDeletedId);
+    }
+
+    // 唯一约束保证多个服务器之间只有一个能占用; 失败后再查一次, 区分已注册和数据库错误
+    @Override
+    public boolean claim(String email, String username) throws IOException {
+        if (username != null && username.length() > MAX_USERNAME_CHARS) {
+            throw new IOException("Player name is longer than " + MAX_USERNAME_CHARS + " characters");
+        }
+        long start = System.nanoTime();
+        Connection connection = borrowOrThrow();
+        try {
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + table + " (email, username, created_at) VALUES (?, ?, ?)")) {
+                insert.setString(1, email);
+                insert.setString(2, username == null ? "" : username);
+                insert.setLong(3, System.currentTimeMillis());
+                insert.executeUpdate();
+                release(connection);
+                return true;
+            } catch (SQLException e) {
+                if (exists(connection, email)) {
+                    release(connection);
+                    return false;
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            discard(connection);
+            throw new IOException("Could not claim email in " + table, e);
+        } finally {
+            flushTimes.observeSince(start);
+        }
+    }
+
+    private boolean exists(Connection connection, String email) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT 1 FROM " + table + " WHERE email = ?")) {
+            select.setString(1, email);
+            try (ResultSet rows = select.executeQuery()) {
+                return rows.next();
+            }
+        }
+    }
+
+    // 删除并留下记录, 其他服务器拉取后从本地缓存中移除
+    @Override
+    public void unclaim(String email) {
+        execute(connection -> {
+            int deleted;
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE email = ?")) {
+                delete.setString(1, email);
+                deleted = delete.executeUpdate();
+            }
+            if (deleted > 0) {
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO " + deletedTable + " (email, deleted_at) VALUES (?, ?)")) {
+                    insert.setString(1, email);
+                    insert.setLong(2, System.currentTimeMillis());
+                    insert.executeUpdate();
+                }
+            }
+        });
+    }
+
+    // 注册时已经由 claim 写入
+    @Override
+    public void append(String email, String username) {
+    }
+
+    // 只删除开始时已有的行, 同时被其他服务器注册的邮箱不会在没有删除记录的情况下消失
+    @Override
+    public void clear() {
+        execute(connection -> {
+            long maxId;
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT MAX(id) FROM " + table)) {
+                maxId = rows.next() ? rows.getLong(1) : 0;
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + deletedTable
+                    + " (email, deleted_at) SELECT email, ? FROM " + table + " WHERE id <= ?")) {
+                insert.setLong(1, System.currentTimeMillis());
+                insert.setLong(2, maxId);
+                insert.executeUpdate();
+            }
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE id <= ?")) {
+                delete.setLong(1, maxId);
+                delete.executeUpdate();
+            }
+        });
+    }
+
+    private interface Update {
+        void run(Connection connection) throws SQLException;
+    }
+
+    // 在写线程上按提交顺序执行, 每次更新是一个事务
+    private void execute(Update update) {
+        try {
+            writer.execute(() -> {
+                long start = System.nanoTime();
+                Connection connection = null;
+                try {
+                    connection = borrow();
+                    connection.setAutoCommit(false);
+                    update.run(connection);
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                    release(connection);
+                } catch (SQLException e) {
+                    discard(connection);
+                    logger.log(Level.WARNING, "Could not update " + table, e);
+                } finally {
+                    flushTimes.observeSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warning("Email storage is closed, dropped update to " + table);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            writer.submit(() -> { }).get(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException | ExecutionException e) {
+            // 已关闭
+        } catch (TimeoutException e) {
+            logger.warning("Timed out waiting for " + table + " updates");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 从 forEach 读到的位置开始, 定期拉取其他服务器新注册和撤销的邮箱
+    @Override
+    public void startSync(Consumer<String> added, Consumer<String> removed) {
+        try {
+            sync.scheduleWithFixedDelay(() -> pull(added, removed), syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+        }
+    }
+
+    private interface Row {
+        void accept(ResultSet rows) throws SQLException;
+    }
+
+    // 按 id 读取的位置, 以及读取时跳过、之后还要再查的空号 (id -> 发现时间); 只在同步线程上修改
+    private static final class Cursor {
+        final String select;
+        final String idColumn;
+        final Map<Long, Long> gaps = new LinkedHashMap<>();
+        volatile long lastSeenId;
+
+        Cursor(String select, String idColumn) {
+            this.select = select;
+            this.idColumn = idColumn;
+        }
+
+        void reset(long id) {
+            lastSeenId = id;
+            gaps.clear();
+        }
+
+        // 记下 lastSeenId 和 id 之间的空号, 跨度过大时只记最近的
+        void skipTo(long id, long now) {
+            for (long missing = Math.max(lastSeenId + 1, id - MAX_GAPS); missing < id; missing++) {
+                if (gaps.size() >= MAX_GAPS) {
+                    Iterator<Long> eldest = gaps.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+                gaps.put(missing, now);
+            }
+            lastSeenId = id;
+        }
+    }
+
+    // 先应用新注册, 再应用删除记录; 删除后又被重新注册的邮箱仍在表中, 不从缓存中移除
+    void pull(Consumer<String> added, Consumer<String> removed) {
+        Row addedRow = rows -> added.accept(rows.getString(2));
+        Row deletedRow = rows -> {
+            String email = rows.getString(2);
+            rows.getLong(3);
+            if (rows.wasNull()) {
+                removed.accept(email);
+            }
+        };
+        Connection connection = null;
+        try {
+            connection = borrow();
+            readGaps(connection, registered, addedRow);
+            readAfter(connection, registered, addedRow);
+            readGaps(connection, deleted, deletedRow);
+            readAfter(connection, deleted, deletedRow);
+            release(connection);
+            if (syncFailing) {
+                syncFailing = false;
+                logger.info("Email sync with " + table + " recovered");
+            }
+        } catch (SQLException | RuntimeException e) {
+            discard(connection);
+            // 只在开始失败时输出一次
+            if (!syncFailing) {
+                syncFailing = true;
+                logger.log(Level.WARNING, "Email sync with " + table + " failed, retrying", e);
+            }
+        }
+    }
+
+    // 按 id 分批读取 lastSeenId 之后的行
+    private static void readAfter(Connection connection, Cursor cursor, Row row) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(cursor.select
+                + " WHERE " + cursor.idColumn + " > ? ORDER BY " + cursor.idColumn)) {
+            select.setMaxRows(BATCH_SIZE);
+            int rowsRead;
+            do {
+                rowsRead = 0;
+                select.setLong(1, cursor.lastSeenId);
+                long now = System.nanoTime();
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        cursor.skipTo(rows.getLong(1), now);
+                        row.accept(rows);
+                        rowsRead++;
+                    }
+                }
+            } while (rowsRead == BATCH_SIZE);
+        }
+    }
+
+    // 再查之前跳过的空号, 晚提交的行在这里补上; 超时的空号丢弃
+    private static void readGaps(Connection connection, Cursor cursor, Row row) throws SQLException {
+        long now = System.nanoTime();
+        // 按发现时间排列, 超时的都在前面
+        Iterator<Long> expired = cursor.gaps.values().iterator();
+        while (expired.hasNext() && now - expired.next() >= GAP_TIMEOUT_NANOS) {
+            expired.remove();
+        }
+        if (cursor.gaps.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(cursor.gaps.keySet());
+        for (int from = 0; from < ids.size(); from += GAPS_PER_QUERY) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + GAPS_PER_QUERY));
+            StringBuilder sql = new StringBuilder(cursor.select).append(" WHERE ").append(cursor.idColumn).append(" IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            try (PreparedStatement select = connection.prepareStatement(sql.append(')').toString())) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    select.setLong(i + 1, chunk.get(i));
+                }
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        cursor.gaps.remove(rows.getLong(1));
+                        row.accept(rows);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        sync.shutdownNow();
+        flush();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        Connection connection = idle.poll();
+        if (connection != null && !connection.isClosed()) {
+            return connection;
+        }
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    private Connection borrowOrThrow() throws IOException {
+        try {
+            return borrow();
+        } catch (SQLException e) {
+            throw new IOException("Could not connect to " + url, e);
+        }
+    }
+
+    // 空闲连接已满时直接关闭
+    private void release(Connection connection) {
+        if (!idle.offer(connection)) {
+            discard(connection);
+        }
+    }
+
+    // 出错的连接不再复用
+    private void discard(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "Could not close database connection", e);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.tr.webwhitelist;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 追加写日志存储: 新邮箱追加到 emails.journal, 后台线程合并写入和 fsync, 定期压缩成 emails.snapshot
+final class JournalEmailStorage implements EmailStorage {
+    private static final int MAX_BATCH = 1024;
+    private static final long FLUSH_TIMEOUT_SECONDS = 10;
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final Logger logger;
+    private final Metrics.Histogram flushTimes;
+    private final long lingerNanos;
+    private final int compactAfter;
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    // 写线程处理批次和读取文件时互斥
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private final Thread writer;
+    private final FileChannel journal;
+    private volatile boolean running = true;
+    private int journalEntries;
+
+    JournalEmailStorage(File dataFolder, Logger logger, long lingerMillis, int compactAfter,
+                        Metrics.Histogram flushTimes) throws IOException {
+        this.snapshotFile = new File(dataFolder, "emails.snapshot");
+        this.journalFile = new File(dataFolder, "emails.journal");
+        this.logger = logger;
+        this.flushTimes = flushTimes;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.compactAfter = Math.max(1, compactAfter);
+
+        // 上次崩溃可能留下写了一半的记录, 截掉最后一个换行之后的内容
+        if (journalFile.exists()) {
+            long dropped = truncateTornRecord(journalFile);
+            if (dropped > 0) {
+                logger.warning("Dropped an incomplete record (" + dropped + " bytes) at the end of " + journalFile.getName());
+            }
+        }
+        this.journalEntries = countLines(journalFile);
+        this.journal = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        this.writer = new NamedThreadFactory("TRWhiteList-Journal").newThread(this::runWriter);
+        this.writer.start();
+    }
+
+    // 快照和日志都为空时才需要从 emails.yml 迁移
+    boolean isEmpty() {
+        return (!snapshotFile.exists() || snapshotFile.length() == 0) && journalFile.length() == 0;
+    }
+
+    // 把旧存储的数据写成快照
+    int importFrom(EmailStorage source) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        source.forEach(entries::put);
+        fileLock.lock();
+        try {
+            writeSnapshot(entries);
+        } finally {
+            fileLock.unlock();
+        }
+        return entries.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> consumer) throws IOException {
+        flush();
+        fileLock.lock();
+        try {
+            // 先读快照, 再重放日志
+            readEntries(snapshotFile, consumer);
+            readEntries(journalFile, consumer);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    @Override
+    public void append(String email, String username) {
+        // 制表符和换行是记录的分隔符, 带这些字符的邮箱不能写入
+        if (!isPlainField(email)) {
+            throw new IllegalArgumentException("Email contains a tab or line break");
+        }
+        String name = username == null ? "" : username;
+        if (!isPlainField(name)) {
+            logger.warning("Username of " + email + " contains a tab or line break, storing it without a name");
+            name = "";
+        }
+        queue.add(new Op(Op.APPEND, email + '\t' + name + '\n'));
+    }
+
+    private static boolean isPlainField(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        queue.add(new Op(Op.CLEAR, null));
+    }
+
+    @Override
+    public void flush() {
+        if (!writer.isAlive()) {
+            return;
+        }
+        Op op = new Op(Op.FLUSH, null);
+        queue.add(op);
+        try {
+            if (!op.done.await(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warning("Timed out waiting for the email journal to flush");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        running = false;
+        // 唤醒写线程让它退出; 不能 interrupt, 否则会关闭正在写的 FileChannel
+        queue.add(new Op(Op.FLUSH, null));
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(FLUSH_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close email journal", e);
+        }
+    }
+
+    private void runWriter() {
+        List<Op> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Op first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+            } catch (InterruptedException e) {
+                // 把剩下的写完再退出
+                queue.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                process(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // 等待一小段时间, 把相邻的写入合并成一次 fsync
+    private void collect(List<Op> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < MAX_BATCH) {
+            Op next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+            }
+            batch.add(next);
+        }
+    }
+
+    private void process(List<Op> batch) {
+        fileLock.lock();
+        long start = System.nanoTime();
+        try {
+            StringBuilder pending = new StringBuilder();
+            int pendingEntries = 0;
+            for (Op op : batch) {
+                if (op.type == Op.APPEND) {
+                    pending.append(op.line);
+                    pendingEntries++;
+                } else if (op.type == Op.CLEAR) {
+                    pending.setLength(0);
+                    pendingEntries = 0;
+                    writeSnapshot(new LinkedHashMap<>());
+                    journal.truncate(0);
+                    journalEntries = 0;
+                }
+            }
+
+            if (pending.length() > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer);
+                }
+                journalEntries += pendingEntries;
+            }
+            journal.force(false);
+
+            if (journalEntries >= compactAfter) {
+                compact();
+            }
+            flushTimes.observeSince(start);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not write email journal", e);
+        } finally {
+            fileLock.unlock();
+            for (Op op : batch) {
+                op.done.countDown();
+            }
+        }
+    }
+
+    // 合并快照和日志, 写出新快照后清空日志
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        Map<String, String> entries = new LinkedHashMap<>();
+        readEntries(snapshotFile, entries::put);
+        readEntries(journalFile, entries::put);
+        writeSnapshot(entries);
+        journal.truncate(0);
+        journal.force(true);
+        journalEntries = 0;
+        logger.info("Compacted email journal into snapshot (" + entries.size() + " emails, "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
+    }
+
+    private void writeSnapshot(Map<String, String> entries) throws IOException {
+        File temp = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), snapshotFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // 把文件截断到最后一个换行之后, 返回截掉的字节数
+    static long truncateTornRecord(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long end = size;
+            long keep = 0;
+            search:
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of " + file.getName());
+                    }
+                }
+                for (int i = buffer.limit() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        keep = start + i + 1;
+                        break search;
+                    }
+                }
+                end = start;
+            }
+            if (keep == size) {
+                return 0;
+            }
+            channel.truncate(keep);
+            channel.force(true);
+            return size - keep;
+        }
+    }
+
+    // 逐行读取 "邮箱\t玩家名", 没有换行结尾的最后一行视为写了一半, 丢弃
+    private static void readEntries(File file, BiConsumer<String, String> consumer) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        boolean complete = endsWithNewline(file);
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String previous = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (previous != null) {
+                    acceptLine(previous, consumer);
+                }
+                previous = line;
+            }
+            if (previous != null && complete) {
+                acceptLine(previous, consumer);
+            }
+        }
+    }
+
+    // 每条记录都带制表符; 缺少制表符或字段不合法的行是损坏的记录, 跳过
+    private static void acceptLine(String line, BiConsumer<String, String> consumer) {
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+            return;
+        }
+        String email = line.substring(0, tab);
+        String username = line.substring(tab + 1);
+        // 旧数据的玩家名可以为空
+        if (!TRWhiteList.isValidEmail(email) || (!username.isEmpty() && !TRWhiteList.isValidUsername(username))) {
+            return;
+        }
+        consumer.accept(email, username);
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length == 0) {
+                return true;
+            }
+            raf.seek(length - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    private static int countLines(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            while (reader.readLine() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static final class Op {
+        static final int APPEND = 0;
+        static final int CLEAR = 1;
+        static final int FLUSH = 2;
+
+        final int type;
+        final String line;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Op(int type, String line) {
+            this.type = type;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.tr.webwhitelist;
+
+// 接口响应, 导入进度和审计日志共用的 JSON 输出
+final class Json {
+    // 键值交替的扁平 JSON 对象, 值都是字符串
+    static String object(String... keysAndValues) {
+        StringBuilder out = new StringBuilder(64).append('{');
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            quote(out, keysAndValues[i]).append(':');
+            quote(out, keysAndValues[i + 1]);
+        }
+        return out.append('}').toString();
+    }
+
+    static StringBuilder quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    // 其他控制字符, 以及 < > 避免被当作 HTML 解析
+                    if (c < 0x20 || c == '<' || c == '>' || c == 0x2028 || c == 0x2029) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        return out.append('"');
+    }
+
+    private Json() {
+    }
+}
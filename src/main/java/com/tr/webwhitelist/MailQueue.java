@@ -0,0 +1,130 @@
+package com.tr.webwhitelist;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 有界的异步发信队列: 单线程复用 SMTP 连接, 失败后指数退避重试, 网页线程从不等待发信
+final class MailQueue {
+    static final class Mail {
+        final String to;
+        final String subject;
+        final String body;
+        // 最终发送失败时在邮件线程回调
+        final Consumer<Mail> onFailure;
+        int attempts;
+
+        Mail(String to, String subject, String body, Consumer<Mail> onFailure) {
+            this.to = to;
+            this.subject = subject;
+            this.body = body;
+            this.onFailure = onFailure;
+        }
+    }
+
+    private final Logger logger;
+    private final SmtpMailer mailer;
+    private final int capacity;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long idleCloseNanos;
+    private final ScheduledExecutorService worker;
+    private final AtomicInteger pending = new AtomicInteger();
+    private long lastUsed;
+
+    MailQueue(Logger logger, SmtpMailer mailer, int capacity, int maxRetries, long backoffMillis, long idleCloseMillis) {
+        this.logger = logger;
+        this.mailer = mailer;
+        this.capacity = Math.max(1, capacity);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMillis = Math.max(100, backoffMillis);
+        this.idleCloseNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, idleCloseMillis));
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("TRWhiteList-Mail"));
+        executor.setRemoveOnCancelPolicy(true);
+        // 关闭时丢弃等待中的重试和空闲检查
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.worker = executor;
+    }
+
+    // 排队发送, 队列已满时返回 false
+    boolean offer(Mail mail) {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            return false;
+        }
+        try {
+            worker.execute(() -> attempt(mail));
+            return true;
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            return false;
+        }
+    }
+
+    private void attempt(Mail mail) {
+        mail.attempts++;
+        try {
+            mailer.send(mail.to, mail.subject, mail.body);
+        } catch (Exception e) {
+            if (mail.attempts <= maxRetries && !worker.isShutdown()) {
+                long delay = backoffMillis << Math.min(mail.attempts - 1, 10);
+                logger.log(Level.FINE, "Mail to " + mail.to + " failed, retrying in " + delay + " ms", e);
+                try {
+                    worker.schedule(() -> attempt(mail), delay, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException ignored) {
+                    // 正在关闭, 按最终失败处理
+                }
+            }
+            pending.decrementAndGet();
+            logger.log(Level.WARNING, "Could not send mail to " + mail.to + " after " + mail.attempts + " attempts", e);
+            if (mail.onFailure != null) {
+                mail.onFailure.accept(mail);
+            }
+            return;
+        }
+        pending.decrementAndGet();
+        scheduleIdleClose();
+    }
+
+    // 一段时间没有新邮件就关闭 SMTP 连接
+    private void scheduleIdleClose() {
+        lastUsed = System.nanoTime();
+        try {
+            worker.schedule(() -> {
+                if (mailer.isConnected() && System.nanoTime() - lastUsed >= idleCloseNanos) {
+                    mailer.close();
+                }
+            }, TimeUnit.NANOSECONDS.toMillis(idleCloseNanos), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // 正在关闭, shutdown 会关闭连接
+        }
+    }
+
+    int getPending() {
+        return pending.get();
+    }
+
+    void shutdown(long timeoutMillis) {
+        worker.shutdown();
+        try {
+            if (worker.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                mailer.close();
+            } else {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        int dropped = pending.get();
+        if (dropped > 0) {
+            logger.warning(dropped + " queued mails were not sent before shutdown");
+        }
+    }
+}
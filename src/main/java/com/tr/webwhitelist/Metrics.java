@@ -0,0 +1,172 @@
+package com.tr.webwhitelist;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// 运行指标: 计数和固定桶直方图都基于 LongAdder, 记录时无锁, 按 Prometheus 文本格式导出
+final class Metrics {
+    // 直方图桶上限, 单位秒
+    private static final double[] LATENCY_BUCKETS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final String[] BUCKET_LABELS = new String[LATENCY_BUCKETS.length + 1];
+
+    static {
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            BUCKET_LABELS[i] = BigDecimal.valueOf(LATENCY_BUCKETS[i]).stripTrailingZeros().toPlainString();
+        }
+        BUCKET_LABELS[LATENCY_BUCKETS.length] = "+Inf";
+    }
+
+    // 注册请求的处理结果
+    enum RequestOutcome {
+        SUCCESS,
+        INVALID_USERNAME,
+        INVALID_EMAIL,
+        SUFFIX_NOT_ALLOWED,
+        ALREADY_REGISTERED,
+        INVALID_CODE,
+        MISSING_PARAMETERS,
+        TOO_LARGE,
+        RATE_LIMITED,
+        OVERLOADED,
+        STARTING,
+        ERROR;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    static final class Histogram {
+        private final long[] boundsNanos = new long[LATENCY_BUCKETS.length];
+        // 最后一个桶是 +Inf
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                boundsNanos[i] = (long) (LATENCY_BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void observe(long nanos) {
+            int i = 0;
+            while (i < boundsNanos.length && nanos > boundsNanos[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        void observeSince(long startNanos) {
+            observe(System.nanoTime() - startNanos);
+        }
+
+        private void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket").append(prefix).append("le=\"").append(BUCKET_LABELS[i]).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(suffix).append(' ')
+                    .append(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+            out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    private static final class Gauge {
+        final String name;
+        final String help;
+        final LongSupplier value;
+
+        Gauge(String name, String help, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private final Histogram[] requests = new Histogram[RequestOutcome.values().length];
+    // 读取并解析注册请求体
+    final Histogram bodyRead = new Histogram();
+    // getOfflinePlayer 查询 (未命中缓存时)
+    final Histogram profileLookup = new Histogram();
+    // 从 addToWhitelist 入队到主线程应用
+    final Histogram queueDelay = new Histogram();
+    // 主线程每 tick 批量应用白名单 (只记录应用了条目的 tick)
+    final Histogram whitelistBatch = new Histogram();
+    // 邮箱存储写盘
+    final Histogram persistenceFlush = new Histogram();
+    private final LongAdder[] whitelistResults = new LongAdder[WhitelistQueue.Outcome.values().length];
+    private final List<Gauge> gauges = new ArrayList<>();
+
+    Metrics() {
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new Histogram();
+        }
+        for (int i = 0; i < whitelistResults.length; i++) {
+            whitelistResults[i] = new LongAdder();
+        }
+    }
+
+    void recordRequest(RequestOutcome outcome, long startNanos) {
+        requests[outcome.ordinal()].observeSince(startNanos);
+    }
+
+    void recordWhitelist(WhitelistQueue.Outcome outcome) {
+        whitelistResults[outcome.ordinal()].increment();
+    }
+
+    // 导出时读取的瞬时值, 启用插件时注册
+    synchronized void gauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    synchronized String render() {
+        StringBuilder out = new StringBuilder(8192);
+        header(out, "trwhitelist_registration_duration_seconds", "histogram",
+                "Time to handle a registration POST, by validation outcome");
+        for (RequestOutcome outcome : RequestOutcome.values()) {
+            requests[outcome.ordinal()].write(out, "trwhitelist_registration_duration_seconds",
+                    "outcome=\"" + outcome.label + "\"");
+        }
+        histogram(out, bodyRead, "trwhitelist_body_read_seconds", "Time to read and parse a registration body");
+        histogram(out, profileLookup, "trwhitelist_profile_lookup_seconds", "Time spent in getOfflinePlayer on cache misses");
+        histogram(out, queueDelay, "trwhitelist_whitelist_queue_delay_seconds",
+                "Time from addToWhitelist to the main thread applying the entry");
+        histogram(out, whitelistBatch, "trwhitelist_whitelist_batch_seconds",
+                "Main thread time spent applying queued whitelist entries per tick");
+        histogram(out, persistenceFlush, "trwhitelist_persistence_flush_seconds", "Time to write registered emails to disk");
+
+        header(out, "trwhitelist_whitelist_results_total", "counter", "Whitelist entries applied on the main thread");
+        for (WhitelistQueue.Outcome outcome : WhitelistQueue.Outcome.values()) {
+            out.append("trwhitelist_whitelist_results_total{outcome=\"").append(outcome.name().toLowerCase(Locale.ROOT))
+                    .append("\"} ").append(whitelistResults[outcome.ordinal()].sum()).append('\n');
+        }
+        for (Gauge gauge : gauges) {
+            header(out, gauge.name, "gauge", gauge.help);
+            out.append(gauge.name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, Histogram histogram, String name, String help) {
+        header(out, name, "histogram", help);
+        histogram.write(out, name, "");
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
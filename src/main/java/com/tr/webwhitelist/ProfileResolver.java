@@ -0,0 +1,8 @@
+package com.tr.webwhitelist;
+
+import org.bukkit.OfflinePlayer;
+
+// 玩家名到玩家档案的解析, 在后台线程调用, 可能阻塞
+interface ProfileResolver {
+    OfflinePlayer resolve(String username) throws Exception;
+}
@@ -0,0 +1,98 @@
+package com.tr.webwhitelist;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 分段加锁的令牌桶限流器, 每段按访问顺序排列: 闲置 (已回满) 的桶从最久未访问的一端逐步清理,
+// 超过上限时淘汰最久未访问的桶, 每次请求的开销有上限
+final class RateLimiter {
+    private static final int STRIPES = 64;
+    // 每次请求最多清理的闲置桶数
+    private static final int MAX_EXPIRED_PER_ACQUIRE = 8;
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private final long refillNanos;
+    private final int maxPerStripe;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    RateLimiter(int capacity, double refillPerMinute, int maxEntries) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = Math.max(refillPerMinute, 0.001) / TimeUnit.MINUTES.toNanos(1);
+        // 从空桶回满所需时间, 超过这个时间没访问的桶等同于不存在
+        this.refillNanos = (long) Math.ceil(this.capacity / tokensPerNano);
+        this.maxPerStripe = Math.max(16, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // 消耗一个令牌, 允许时返回 0, 否则返回需要等待的秒数
+    long tryAcquire(String key) {
+        Stripe stripe = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            stripe.expireIdle(now);
+            Bucket bucket = stripe.buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket(capacity, now);
+                stripe.buckets.put(key, bucket);
+            } else {
+                bucket.tokens = Math.min(capacity, bucket.tokens + (now - bucket.updated) * tokensPerNano);
+                bucket.updated = now;
+            }
+
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            double waitNanos = (1 - bucket.tokens) / tokensPerNano;
+            return Math.max(1, (long) Math.ceil(waitNanos / TimeUnit.SECONDS.toNanos(1)));
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.buckets.size();
+            }
+        }
+        return size;
+    }
+
+    private final class Stripe {
+        // 访问顺序: 最久未访问的在最前, 超过上限时淘汰它, 保证内存有上限
+        final Map<String, Bucket> buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+                return size() > maxPerStripe;
+            }
+        };
+
+        // 从最久未访问的一端清理已回满的桶, 遇到仍在使用的桶就停止
+        void expireIdle(long now) {
+            Iterator<Bucket> iterator = buckets.values().iterator();
+            for (int i = 0; i < MAX_EXPIRED_PER_ACQUIRE && iterator.hasNext(); i++) {
+                if (now - iterator.next().updated < refillNanos) {
+                    return;
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long updated;
+
+        Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+        }
+    }
+}
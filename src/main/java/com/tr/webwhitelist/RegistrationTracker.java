@@ -0,0 +1,105 @@
+package com.tr.webwhitelist;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// /api/register 的请求编号和结果: 有容量上限并按存活时间淘汰;
+// 长轮询不占用网页线程, 单独的线程只负责计时, 完成或超时后把响应交回网页执行器
+final class RegistrationTracker {
+    static final class Ticket {
+        final String id;
+        final WhitelistQueue.Registration registration;
+
+        Ticket(String id, WhitelistQueue.Registration registration) {
+            this.id = id;
+            this.registration = registration;
+        }
+
+        boolean isDone() {
+            return registration.result.isDone();
+        }
+
+        // 尚未应用时返回 null
+        WhitelistQueue.Outcome outcome() {
+            return registration.result.getNow(null);
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final ExpiringCache<String, Ticket> tickets;
+    private final ScheduledExecutorService callbacks =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("TRWhiteList-Status"));
+    private final int maxWaiters;
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    RegistrationTracker(int maxResults, long ttlSeconds, int maxWaiters) {
+        this.tickets = new ExpiringCache<>(maxResults, ttlSeconds, TimeUnit.SECONDS);
+        this.maxWaiters = Math.max(0, maxWaiters);
+    }
+
+    // 为已预留邮箱的注册分配编号, 之后由调用方提交到 WhitelistQueue
+    Ticket track(WhitelistQueue.Registration registration) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String id = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Ticket ticket = new Ticket(id, registration);
+        tickets.put(id, ticket);
+        // 完成后重新放入, 存活时间从完成时算起
+        registration.result.thenRunAsync(() -> tickets.put(id, ticket), callbacks);
+        return ticket;
+    }
+
+    Ticket get(String id) {
+        return tickets.get(id);
+    }
+
+    // 等到完成或超时后在 responder 上回调一次; 等待数已满或正在关闭时返回 false, 调用方应立即响应
+    boolean await(Ticket ticket, long timeoutMillis, Executor responder, Consumer<Ticket> callback) {
+        if (waiters.incrementAndGet() > maxWaiters) {
+            waiters.decrementAndGet();
+            return false;
+        }
+        AtomicBoolean fired = new AtomicBoolean();
+        Runnable fire = () -> {
+            if (fired.compareAndSet(false, true)) {
+                waiters.decrementAndGet();
+                try {
+                    responder.execute(() -> callback.accept(ticket));
+                } catch (RejectedExecutionException e) {
+                    // 执行器已关闭, 在当前线程响应
+                    callback.accept(ticket);
+                }
+            }
+        };
+        try {
+            ScheduledFuture<?> timeout = callbacks.schedule(fire, timeoutMillis, TimeUnit.MILLISECONDS);
+            ticket.registration.result.whenCompleteAsync((outcome, error) -> {
+                timeout.cancel(false);
+                fire.run();
+            }, callbacks);
+        } catch (RejectedExecutionException e) {
+            waiters.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    int getWaiters() {
+        return waiters.get();
+    }
+
+    // 网页服务器停止后调用, 仍在等待的请求随服务器一起关闭
+    void shutdown() {
+        callbacks.shutdownNow();
+        tickets.clear();
+    }
+}
@@ -0,0 +1,332 @@
+package com.tr.webwhitelist;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 运行时设置的不可变快照: 重载时在后台线程构建, 再通过一次 volatile 写整体替换;
+// 请求线程每次请求只读取一次快照, 不会看到新旧混合的设置
+final class RuntimeSettings {
+    private static final String DEFAULT_PAGE = "<html><body><h1>${index_title}</h1>" +
+            "<form method='POST'>" +
+            "<label>${username_label}:</label><input type='text' name='username' required><br>" +
+            "<label>${email_label}:</label><input type='email' name='email' required><br>" +
+            "<label>${code_label}:</label><input type='password' name='code' required><br>" +
+            "<input type='submit' value='${submit_button}'>" +
+            "</form></body></html>";
+
+    final FileConfiguration config;
+    final int port;
+    final String verificationCode;
+    final List<String> allowedEmailSuffixes;
+    final EmailDomainMatcher allowedEmailDomains;
+    final FormParser formParser;
+    final RateLimiter ipRateLimiter;
+    final RateLimiter emailRateLimiter;
+    final Set<String> trustedProxies;
+    final String forwardedHeader;
+    final Map<String, String> messages;
+    final Map<String, Template> messageTemplates;
+    final Map<String, byte[]> renderedMessages;
+    final VerificationCodes verificationCodes;
+    final MailQueue mailQueue;
+    final long codeTtlMinutes;
+    final boolean metricsEnabled;
+    final int metricsPort;
+    final String metricsPath;
+    final String metricsToken;
+    final String adminToken;
+    final int importMaxInFlight;
+    final long importMaxBytes;
+    // 配置没变时沿用上一个快照的限流器和发信队列, 保留令牌桶和待发邮件
+    private final Map<String, Object> rateLimitValues;
+    private final Map<String, Object> emailVerificationValues;
+
+    private RuntimeSettings(FileConfiguration config, Logger logger, RuntimeSettings previous) {
+        this.config = config;
+
+        // 加载端口
+        port = config.getInt("port", 11434);
+
+        // 加载验证码
+        verificationCode = config.getString("verification-code", "default");
+
+        // 加载允许的邮箱后缀
+        allowedEmailSuffixes = Collections.unmodifiableList(config.getStringList("allowed-email-suffixes"));
+        allowedEmailDomains = EmailDomainMatcher.compile(allowedEmailSuffixes);
+
+        // 请求体大小限制
+        formParser = new FormParser(config.getInt("web-server.max-body-bytes", 4096),
+                config.getInt("web-server.max-field-bytes", 320));
+
+        // 限流设置
+        rateLimitValues = sectionValues(config, "rate-limit");
+        if (previous != null && previous.rateLimitValues.equals(rateLimitValues)) {
+            ipRateLimiter = previous.ipRateLimiter;
+            emailRateLimiter = previous.emailRateLimiter;
+        } else if (config.getBoolean("rate-limit.enabled", true)) {
+            int maxEntries = config.getInt("rate-limit.max-entries", 100000);
+            ipRateLimiter = new RateLimiter(config.getInt("rate-limit.per-ip.capacity", 10),
+                    config.getDouble("rate-limit.per-ip.refill-per-minute", 6), maxEntries);
+            emailRateLimiter = new RateLimiter(config.getInt("rate-limit.per-email.capacity", 5),
+                    config.getDouble("rate-limit.per-email.refill-per-minute", 1), maxEntries);
+        } else {
+            ipRateLimiter = null;
+            emailRateLimiter = null;
+        }
+        trustedProxies = Collections.unmodifiableSet(new HashSet<>(config.getStringList("rate-limit.trusted-proxies")));
+        forwardedHeader = config.getString("rate-limit.forwarded-header", "X-Forwarded-For");
+
+        // 指标导出
+        metricsEnabled = config.getBoolean("metrics.enabled", false);
+        metricsPort = config.getInt("metrics.port", 0);
+        String path = config.getString("metrics.path", "/metrics");
+        if (!path.startsWith("/") || "/".equals(path) || "/send-code".equals(path)) {
+            logger.warning("Invalid metrics.path '" + path + "', using /metrics");
+            path = "/metrics";
+        }
+        metricsPath = path;
+        metricsToken = config.getString("metrics.token", "");
+        adminToken = config.getString("admin.token", "");
+        importMaxInFlight = Math.max(1, config.getInt("admin.import-max-in-flight", 1000));
+        importMaxBytes = Math.max(1, config.getLong("admin.import-max-body-mb", 64)) * 1024 * 1024;
+
+        // 加载消息
+        messages = Collections.unmodifiableMap(loadMessages(config));
+
+        // 预编译消息模板, 固定的响应消息直接渲染成字节
+        Map<String, Template> templates = new HashMap<>();
+        Map<String, byte[]> rendered = new HashMap<>();
+        String suffixes = String.join(", ", allowedEmailSuffixes);
+        for (Map.Entry<String, String> entry : messages.entrySet()) {
+            Template template = Template.message(entry.getValue());
+            templates.put(entry.getKey(), template);
+            rendered.put(entry.getKey(), template.render("suffixes", suffixes).getBytes(StandardCharsets.UTF_8));
+        }
+        messageTemplates = Collections.unmodifiableMap(templates);
+        renderedMessages = Collections.unmodifiableMap(rendered);
+
+        // 邮件验证码, 最后创建, 前面出错时不会留下发信线程
+        emailVerificationValues = sectionValues(config, "email-verification");
+        if (previous != null && previous.emailVerificationValues.equals(emailVerificationValues)) {
+            verificationCodes = previous.verificationCodes;
+            mailQueue = previous.mailQueue;
+            codeTtlMinutes = previous.codeTtlMinutes;
+        } else if (config.getBoolean("email-verification.enabled", false)) {
+            long codeTtlSeconds = config.getLong("email-verification.code-ttl-seconds", 600);
+            codeTtlMinutes = Math.max(1, codeTtlSeconds / 60);
+            verificationCodes = new VerificationCodes(
+                    config.getInt("email-verification.code-length", 6),
+                    codeTtlSeconds,
+                    config.getInt("email-verification.max-attempts", 5),
+                    config.getLong("email-verification.resend-cooldown-seconds", 60),
+                    config.getInt("email-verification.max-pending-codes", 10000));
+            mailQueue = new MailQueue(logger, createMailer(config, logger),
+                    config.getInt("email-verification.queue-size", 200),
+                    config.getInt("email-verification.max-retries", 3),
+                    config.getLong("email-verification.retry-backoff-seconds", 5) * 1000,
+                    config.getLong("email-verification.idle-close-seconds", 60) * 1000);
+        } else {
+            verificationCodes = null;
+            mailQueue = null;
+            codeTtlMinutes = 0;
+        }
+    }
+
+    static RuntimeSettings load(FileConfiguration config, Logger logger, RuntimeSettings previous) {
+        return new RuntimeSettings(config, logger, previous);
+    }
+
+    private static Map<String, String> loadMessages(FileConfiguration config) {
+        Map<String, String> messages = new HashMap<>();
+        if (config.isConfigurationSection("messages")) {
+            config.getConfigurationSection("messages").getKeys(false).forEach(key -> {
+                messages.put(key, config.getString("messages." + key, ""));
+            });
+        }
+
+        // 设置默认消息
+        messages.putIfAbsent("success", "<h1 style='color:green'>Success! Player added.</h1>");
+        messages.putIfAbsent("invalid_code", "<h1 style='color:red'>Invalid code!</h1>");
+        messages.putIfAbsent("email_required", "<h1 style='color:red'>Email is required!</h1>");
+        messages.putIfAbsent("invalid_username", "<h1 style='color:red'>Invalid Minecraft username!</h1>");
+        messages.putIfAbsent("invalid_email", "<h1 style='color:red'>Invalid email format!</h1>");
+        messages.putIfAbsent("email_suffix_not_allowed", "<h1 style='color:red'>Email suffix not allowed! Allowed: {suffixes}</h1>");
+        messages.putIfAbsent("email_already_registered", "<h1 style='color:red'>This email is already registered!</h1>");
+        messages.putIfAbsent("too_many_requests", "<h1 style='color:red'>Too many requests, please try again later!</h1>");
+        messages.putIfAbsent("code_sent", "<h1 style='color:green'>Verification code sent!</h1>");
+        messages.putIfAbsent("mail_subject", "TR WhiteList verification code");
+        messages.putIfAbsent("mail_body", "Your verification code is {code}. It expires in {minutes} minutes.");
+        messages.putIfAbsent("console_success", "Added {player} to whitelist");
+        messages.putIfAbsent("console_error", "Error: {error}");
+        messages.putIfAbsent("index_title", "TR WhiteList Portal");
+        messages.putIfAbsent("username_label", "Minecraft Username");
+        messages.putIfAbsent("email_label", "Email Address");
+        messages.putIfAbsent("code_label", "Verification Code");
+        messages.putIfAbsent("submit_button", "Add to Whitelist");
+        return messages;
+    }
+
+    // 按本快照的语言设置渲染首页, 由 StaticAssets 在快照替换或文件修改后调用
+    byte[] renderIndexPage(File htmlFile, Logger logger) {
+        String page = DEFAULT_PAGE;
+        if (htmlFile.exists()) {
+            try {
+                page = new String(Files.readAllBytes(htmlFile.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not read index.html", e);
+            }
+        }
+        return applyLanguageSettings(page).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 应用语言设置到HTML内容
+    private String applyLanguageSettings(String htmlContent) {
+        if (htmlContent == null || htmlContent.isEmpty()) {
+            return htmlContent;
+        }
+
+        return Template.page(htmlContent).render(messages);
+    }
+
+    private static SmtpMailer createMailer(FileConfiguration config, Logger logger) {
+        SmtpMailer.Security security;
+        try {
+            security = SmtpMailer.Security.valueOf(
+                    config.getString("email-verification.smtp.security", "ssl").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warning("Unknown email-verification.smtp.security, using ssl");
+            security = SmtpMailer.Security.SSL;
+        }
+        return new SmtpMailer(
+                config.getString("email-verification.smtp.host", "localhost"),
+                config.getInt("email-verification.smtp.port", 465),
+                security,
+                config.getString("email-verification.smtp.username", ""),
+                config.getString("email-verification.smtp.password", ""),
+                config.getString("email-verification.smtp.from", "noreply@localhost"),
+                config.getInt("email-verification.smtp.timeout-seconds", 10) * 1000);
+    }
+
+    // 节点下所有叶子值, 用于比较两次配置是否相同
+    private static Map<String, Object> sectionValues(ConfigurationSection config, String path) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        ConfigurationSection section = config.getConfigurationSection(path);
+        if (section != null) {
+            for (String key : section.getKeys(true)) {
+                if (!section.isConfigurationSection(key)) {
+                    values.put(key, section.get(key));
+                }
+            }
+        }
+        return values;
+    }
+
+    // 监听地址是否与另一个快照相同
+    boolean sameMetricsListener(RuntimeSettings other) {
+        return metricsEnabled == other.metricsEnabled && metricsPort == other.metricsPort
+                && metricsPath.equals(other.metricsPath);
+    }
+
+    // 被新快照替换后释放不再使用的资源
+    void retire(RuntimeSettings next) {
+        MailQueue queue = mailQueue;
+        if (queue != null && queue != next.mailQueue) {
+            CompletableFuture.runAsync(() -> queue.shutdown(10000));
+        }
+    }
+
+    void shutdown(long timeoutMillis) {
+        if (mailQueue != null) {
+            mailQueue.shutdown(timeoutMillis);
+        }
+    }
+
+    boolean isEmailSuffixAllowed(String email) {
+        return allowedEmailDomains.matches(email); // 如果没有限制，则允许所有
+    }
+
+    // 开启邮件验证时校验该邮箱的一次性验证码, 否则校验统一验证码
+    boolean checkVerificationCode(String email, String code) {
+        if (verificationCodes != null) {
+            return verificationCodes.verify(EmailRegistry.normalize(email), code);
+        }
+        return code.equals(verificationCode);
+    }
+
+    // 渲染单个占位符的消息
+    String formatMessage(String key, String placeholder, String value) {
+        Template template = messageTemplates.get(key);
+        return template != null ? template.render(placeholder, value) : "";
+    }
+
+    // 预渲染的响应消息
+    byte[] messageBytes(String key) {
+        byte[] bytes = renderedMessages.get(key);
+        return bytes != null ? bytes : new byte[0];
+    }
+
+    // 客户端地址, 只有来自可信代理的请求才使用转发头
+    String clientAddress(HttpExchange exchange) {
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        String address = remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+        if (!trustedProxies.contains(address)) {
+            return address;
+        }
+        String header = exchange.getRequestHeaders().getFirst(forwardedHeader);
+        if (header == null) {
+            return address;
+        }
+        // 从右往左取第一个不是可信代理的地址
+        String[] hops = header.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (!hop.isEmpty() && !trustedProxies.contains(hop)) {
+                return hop;
+            }
+        }
+        return address;
+    }
+
+    // 按 IP 限流, 返回需要等待的秒数, 0 表示允许
+    long acquireIpRateLimit(HttpExchange exchange) {
+        return ipRateLimiter != null ? ipRateLimiter.tryAcquire(clientAddress(exchange)) : 0;
+    }
+
+    long acquireEmailRateLimit(String email) {
+        return emailRateLimiter != null ? emailRateLimiter.tryAcquire(EmailRegistry.normalize(email)) : 0;
+    }
+
+    // 验证码邮件, 发送最终失败时撤回验证码
+    MailQueue.Mail buildCodeMail(String email, String code) {
+        Map<String, String> values = new HashMap<>();
+        values.put("code", code);
+        values.put("minutes", Long.toString(codeTtlMinutes));
+        VerificationCodes codes = verificationCodes;
+        return new MailQueue.Mail(email,
+                messageTemplates.get("mail_subject").render(values),
+                messageTemplates.get("mail_body").render(values),
+                mail -> {
+                    if (codes != null) {
+                        codes.revoke(email);
+                    }
+                });
+    }
+}
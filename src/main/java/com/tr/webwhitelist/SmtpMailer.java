@@ -0,0 +1,219 @@
+package com.tr.webwhitelist;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+
+// 最小化的 SMTP 客户端, 连接在多封邮件之间复用; 只在邮件线程中使用, 非线程安全
+final class SmtpMailer {
+    enum Security {
+        NONE,
+        STARTTLS,
+        SSL
+    }
+
+    private final String host;
+    private final int port;
+    private final Security security;
+    private final String username;
+    private final String password;
+    private final String from;
+    private final int timeoutMillis;
+
+    private Socket socket;
+    private BufferedReader reader;
+    private OutputStream out;
+
+    SmtpMailer(String host, int port, Security security, String username, String password, String from,
+               int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.security = security;
+        this.username = username;
+        this.password = password;
+        this.from = from;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    void send(String to, String subject, String body) throws IOException {
+        boolean reused = isConnected();
+        if (!reused) {
+            connect();
+        }
+        try {
+            transmit(to, subject, body);
+        } catch (IOException e) {
+            // 连接状态未知, 丢弃; 复用的连接可能已被服务器关闭, 重连后再试一次
+            disconnect();
+            if (!reused) {
+                throw e;
+            }
+            connect();
+            try {
+                transmit(to, subject, body);
+            } catch (IOException retry) {
+                disconnect();
+                throw retry;
+            }
+        }
+    }
+
+    private void transmit(String to, String subject, String body) throws IOException {
+        command("MAIL FROM:<" + from + ">", 250);
+        command("RCPT TO:<" + to + ">", 250, 251);
+        command("DATA", 354);
+        write(buildMessage(to, subject, body));
+        write(".\r\n");
+        expect(250);
+    }
+
+    boolean isConnected() {
+        return socket != null && !socket.isClosed();
+    }
+
+    // 发送 QUIT 并关闭连接
+    void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            command("QUIT", 221);
+        } catch (IOException ignored) {
+        }
+        disconnect();
+    }
+
+    private void connect() throws IOException {
+        Socket plain = new Socket();
+        try {
+            plain.connect(new InetSocketAddress(host, port), timeoutMillis);
+            plain.setSoTimeout(timeoutMillis);
+            open(security == Security.SSL ? startTls(plain) : plain);
+            expect(220);
+            ehlo();
+            if (security == Security.STARTTLS) {
+                command("STARTTLS", 220);
+                open(startTls(socket));
+                ehlo();
+            }
+            if (username != null && !username.isEmpty()) {
+                command("AUTH LOGIN", 334);
+                command(base64(username), 334);
+                command(base64(password == null ? "" : password), 235);
+            }
+        } catch (IOException e) {
+            disconnect();
+            plain.close();
+            throw e;
+        }
+    }
+
+    // 在已有连接上握手 TLS 并校验服务器主机名
+    private SSLSocket startTls(Socket plain) throws IOException {
+        SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                .createSocket(plain, host, port, true);
+        SSLParameters parameters = tls.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        tls.setSSLParameters(parameters);
+        tls.startHandshake();
+        return tls;
+    }
+
+    private void open(Socket target) throws IOException {
+        socket = target;
+        reader = new BufferedReader(new InputStreamReader(target.getInputStream(), StandardCharsets.UTF_8));
+        out = target.getOutputStream();
+    }
+
+    private void ehlo() throws IOException {
+        String name = "localhost";
+        try {
+            name = java.net.InetAddress.getLocalHost().getHostName();
+        } catch (IOException ignored) {
+        }
+        command("EHLO " + name, 250);
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        socket = null;
+        reader = null;
+        out = null;
+    }
+
+    private void command(String line, int... expected) throws IOException {
+        write(line + "\r\n");
+        expect(expected);
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // 读取 (可能多行的) 响应并检查状态码
+    private void expect(int... expected) throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                throw new IOException("SMTP connection closed by " + host);
+            }
+        } while (line.length() > 3 && line.charAt(3) == '-');
+
+        int code;
+        try {
+            code = Integer.parseInt(line.substring(0, Math.min(3, line.length())));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed SMTP response: " + line);
+        }
+        for (int value : expected) {
+            if (code == value) {
+                return;
+            }
+        }
+        throw new IOException("Unexpected SMTP response: " + line);
+    }
+
+    private String buildMessage(String to, String subject, String body) {
+        SimpleDateFormat date = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+        String domain = from.contains("@") ? from.substring(from.indexOf('@') + 1) : host;
+        StringBuilder message = new StringBuilder(256 + body.length() * 2);
+        message.append("From: ").append(from).append("\r\n");
+        message.append("To: ").append(to).append("\r\n");
+        message.append("Subject: =?UTF-8?B?").append(base64(subject)).append("?=\r\n");
+        message.append("Date: ").append(date.format(new Date())).append("\r\n");
+        message.append("Message-ID: <").append(UUID.randomUUID()).append('@').append(domain).append(">\r\n");
+        message.append("MIME-Version: 1.0\r\n");
+        message.append("Content-Type: text/plain; charset=UTF-8\r\n");
+        message.append("Content-Transfer-Encoding: base64\r\n\r\n");
+
+        // base64 正文不会出现以 '.' 开头的行, 无需转义
+        String encoded = base64(body);
+        for (int i = 0; i < encoded.length(); i += 76) {
+            message.append(encoded, i, Math.min(encoded.length(), i + 76)).append("\r\n");
+        }
+        return message.toString();
+    }
+
+    private static String base64(String text) {
+        return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
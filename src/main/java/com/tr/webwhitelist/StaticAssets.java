@@ -0,0 +1,466 @@
+package com.tr.webwhitelist;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// 插件目录下的静态文件: 首次请求时读入内存 (大文件映射到内存), 预先压缩 gzip 版本,
+// 支持 ETag / Last-Modified 条件请求; 目录监听线程在管理员修改文件后使缓存失效
+final class StaticAssets implements AutoCloseable {
+    // 只提供这些扩展名, 配置、邮箱存储和日志文件永远不会被访问到
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+    private static final String INDEX = "index.html";
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("css", "text/css; charset=UTF-8");
+        CONTENT_TYPES.put("js", "text/javascript; charset=UTF-8");
+        CONTENT_TYPES.put("mjs", "text/javascript; charset=UTF-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("ttf", "font/ttf");
+    }
+
+    // 一个文件的全部表示形式, 创建后不再修改
+    static final class Asset {
+        final String contentType;
+        final long lastModified;
+        final long length;
+        // 二者只有一个不为 null
+        final byte[] bytes;
+        final ByteBuffer mapped;
+        final byte[] gzip;
+        final String etag;
+        final String gzipEtag;
+
+        Asset(String contentType, long lastModified, byte[] bytes, ByteBuffer mapped, byte[] gzip, String digest) {
+            this.contentType = contentType;
+            // HTTP 日期只精确到秒
+            this.lastModified = lastModified / 1000 * 1000;
+            this.bytes = bytes;
+            this.mapped = mapped;
+            this.length = bytes != null ? bytes.length : mapped.remaining();
+            this.gzip = gzip;
+            this.etag = "\"" + digest + "\"";
+            this.gzipEtag = "\"" + digest + "-gz\"";
+        }
+    }
+
+    // 首页按当前设置快照渲染, 快照替换或 index.html 修改后重新渲染
+    private static final class IndexPage {
+        final RuntimeSettings settings;
+        final long generation;
+        final Asset asset;
+
+        IndexPage(RuntimeSettings settings, long generation, Asset asset) {
+            this.settings = settings;
+            this.generation = generation;
+            this.asset = asset;
+        }
+    }
+
+    private final Function<String, File> files;
+    private final Path root;
+    private final Logger logger;
+    private final String cacheControl;
+    private final long mmapThreshold;
+    private final int gzipMinBytes;
+    private final Map<String, Asset> cache = new ConcurrentHashMap<>();
+    // 每次失效加一, 读取文件期间发生失效时不放入缓存
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong indexGeneration = new AtomicLong();
+    private volatile IndexPage indexPage;
+    private final WatchService watcher;
+    private final Map<WatchKey, String> watchedDirectories = new ConcurrentHashMap<>();
+
+    StaticAssets(File root, Function<String, File> files, Logger logger, long maxAgeSeconds,
+                 long mmapThresholdBytes, int gzipMinBytes, boolean watch) throws IOException {
+        this.files = files;
+        this.root = root.getCanonicalFile().toPath();
+        this.logger = logger;
+        this.cacheControl = maxAgeSeconds > 0 ? "public, max-age=" + maxAgeSeconds : "no-cache";
+        this.mmapThreshold = mmapThresholdBytes;
+        this.gzipMinBytes = gzipMinBytes;
+
+        WatchService service = null;
+        if (watch) {
+            try {
+                service = FileSystems.getDefault().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.log(Level.WARNING, "File watching is unavailable, edited web files need /trwl-reload", e);
+            }
+        }
+        watcher = service;
+        if (watcher != null) {
+            watchDirectory(this.root, "");
+            new NamedThreadFactory("TRWhiteList-Assets").newThread(this::watchLoop).start();
+        }
+    }
+
+    // 处理 GET / HEAD 请求, "/" 和 "/index.html" 返回按当前设置渲染的首页
+    void handle(HttpExchange exchange, RuntimeSettings settings) throws IOException {
+        String method = exchange.getRequestMethod();
+        boolean head = "HEAD".equalsIgnoreCase(method);
+        if (!head && !"GET".equalsIgnoreCase(method)) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD, POST");
+            TRWhiteList.sendResponse(exchange, 405, "text/plain; charset=UTF-8",
+                    "Method not allowed".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        Asset asset;
+        String cache;
+        if (path == null || path.equals("/") || path.equals("/" + INDEX)) {
+            asset = index(settings);
+            // 首页内容随配置变化, 每次都要重新验证
+            cache = "no-cache";
+        } else {
+            asset = get(path.substring(1));
+            cache = cacheControl;
+        }
+        if (asset == null) {
+            TRWhiteList.sendResponse(exchange, 404, "text/plain; charset=UTF-8",
+                    "Not found".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        send(exchange, asset, cache, head);
+    }
+
+    private Asset index(RuntimeSettings settings) throws IOException {
+        IndexPage page = indexPage;
+        long current = indexGeneration.get();
+        if (page != null && page.settings == settings && page.generation == current) {
+            return page.asset;
+        }
+        byte[] html = settings.renderIndexPage(files.apply(INDEX), logger);
+        Asset asset = build(CONTENT_TYPES.get("html"), System.currentTimeMillis(), html, null);
+        indexPage = new IndexPage(settings, current, asset);
+        return asset;
+    }
+
+    // 返回 null 表示不存在或不允许访问
+    Asset get(String relative) throws IOException {
+        Asset asset = cache.get(relative);
+        if (asset != null) {
+            return asset;
+        }
+        String contentType = contentType(relative);
+        if (contentType == null || !isSafePath(relative)) {
+            return null;
+        }
+        Path file = files.apply(relative).toPath();
+        if (!Files.isRegularFile(file) || !file.toRealPath().startsWith(root)) {
+            return null;
+        }
+
+        long started = generation.get();
+        asset = load(file, contentType);
+        if (watcher != null) {
+            int slash = relative.lastIndexOf('/');
+            if (slash > 0) {
+                watchDirectory(file.getParent(), relative.substring(0, slash + 1));
+            }
+        }
+        // 读取期间文件被修改过, 这次的内容可能不完整, 不缓存
+        if (generation.get() == started) {
+            cache.putIfAbsent(relative, asset);
+        }
+        return asset;
+    }
+
+    private Asset load(Path file, String contentType) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > mmapThreshold) {
+                // 大文件不占用堆内存, 也不压缩
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return build(contentType, lastModified, null, mapped);
+            }
+        }
+        return build(contentType, lastModified, Files.readAllBytes(file), null);
+    }
+
+    private Asset build(String contentType, long lastModified, byte[] bytes, ByteBuffer mapped) throws IOException {
+        MessageDigest digest = sha256();
+        if (bytes != null) {
+            digest.update(bytes);
+        } else {
+            digest.update(mapped.duplicate());
+        }
+        String hash = Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest()).substring(0, 22);
+
+        byte[] gzip = null;
+        if (bytes != null && bytes.length >= gzipMinBytes && isCompressible(contentType)) {
+            gzip = gzip(bytes);
+            // 压缩后没有变小就不提供
+            if (gzip.length >= bytes.length) {
+                gzip = null;
+            }
+        }
+        return new Asset(contentType, lastModified, bytes, mapped, gzip, hash);
+    }
+
+    private static void send(HttpExchange exchange, Asset asset, String cacheControl, boolean head) throws IOException {
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        boolean gzip = asset.gzip != null && acceptsGzip(request.get("Accept-Encoding"));
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+
+        response.set("ETag", etag);
+        response.set("Last-Modified", HTTP_DATE.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(asset.lastModified), ZoneOffset.UTC)));
+        response.set("Cache-Control", cacheControl);
+        if (asset.gzip != null) {
+            response.set("Vary", "Accept-Encoding");
+        }
+        if (notModified(request, etag, asset.lastModified)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        response.set("Content-Type", asset.contentType);
+        if (gzip) {
+            response.set("Content-Encoding", "gzip");
+        }
+        if (head) {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        long length = gzip ? asset.gzip.length : asset.length;
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            if (gzip) {
+                os.write(asset.gzip);
+            } else if (asset.bytes != null) {
+                os.write(asset.bytes);
+            } else {
+                ByteBuffer buffer = asset.mapped.duplicate();
+                byte[] chunk = new byte[(int) Math.min(buffer.remaining(), 64 * 1024)];
+                while (buffer.hasRemaining()) {
+                    int n = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, n);
+                    os.write(chunk, 0, n);
+                }
+            }
+        }
+    }
+
+    // If-None-Match 优先于 If-Modified-Since
+    private static boolean notModified(Headers request, String etag, long lastModified) {
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE).toInstant().toEpochMilli();
+                return lastModified <= since;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(Iterable<String> headers) {
+        if (headers == null) {
+            return false;
+        }
+        for (String header : headers) {
+            for (String part : header.split(",")) {
+                String[] params = part.trim().split(";");
+                String coding = params[0].trim();
+                if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                    continue;
+                }
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String contentType(String relative) {
+        int dot = relative.lastIndexOf('.');
+        if (dot < 0 || dot < relative.lastIndexOf('/')) {
+            return null;
+        }
+        return CONTENT_TYPES.get(relative.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // 拒绝隐藏文件、空路径段和 ".."; 符号链接另外按真实路径检查
+    private static boolean isSafePath(String relative) {
+        if (relative.isEmpty() || relative.indexOf('\\') >= 0 || relative.indexOf('\0') >= 0 || relative.indexOf(':') >= 0) {
+            return false;
+        }
+        for (String segment : relative.split("/", -1)) {
+            if (segment.isEmpty() || segment.charAt(0) == '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.startsWith("image/svg");
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        // 只在加载时压缩一次, 使用最高压缩级别
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 丢弃所有缓存, 重载配置时调用
+    void invalidateAll() {
+        generation.incrementAndGet();
+        indexGeneration.incrementAndGet();
+        cache.clear();
+    }
+
+    private void invalidate(String relative) {
+        generation.incrementAndGet();
+        if (relative.equals(INDEX)) {
+            indexGeneration.incrementAndGet();
+        }
+        // 目录被改名或删除时, 其下的文件一起失效
+        String prefix = relative + "/";
+        cache.keySet().removeIf(key -> key.equals(relative) || key.startsWith(prefix));
+    }
+
+    private void watchDirectory(Path directory, String prefix) {
+        if (watchedDirectories.containsValue(prefix)) {
+            return;
+        }
+        try {
+            WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(key, prefix);
+        } catch (IOException | ClosedWatchServiceException e) {
+            logger.log(Level.WARNING, "Could not watch " + directory + ", edits there need /trwl-reload", e);
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            String prefix = watchedDirectories.get(key);
+            if (prefix != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateAll();
+                    } else {
+                        invalidate(prefix + event.context());
+                    }
+                }
+            }
+            if (!key.reset()) {
+                // 目录已被删除
+                watchedDirectories.remove(key);
+                if (prefix == null || prefix.isEmpty()) {
+                    invalidateAll();
+                } else {
+                    invalidate(prefix.substring(0, prefix.length() - 1));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close the file watcher", e);
+            }
+        }
+        cache.clear();
+    }
+}
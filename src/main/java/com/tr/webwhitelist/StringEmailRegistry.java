@@ -0,0 +1,64 @@
+package com.tr.webwhitelist;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 在内存中保存完整邮箱地址, 每个条目大约 80-120 字节
+final class StringEmailRegistry implements EmailRegistry {
+    // String 对象头和字段、byte[] 头、ConcurrentHashMap 节点和表槽位
+    private static final int ENTRY_OVERHEAD = 24 + 16 + 32 + 8;
+
+    private final Set<String> emails = ConcurrentHashMap.newKeySet();
+    private final AtomicLong totalLength = new AtomicLong();
+
+    @Override
+    public boolean contains(String email) {
+        return emails.contains(EmailRegistry.normalize(email));
+    }
+
+    @Override
+    public boolean reserve(String email) {
+        String normalized = EmailRegistry.normalize(email);
+        if (emails.add(normalized)) {
+            totalLength.addAndGet(normalized.length());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void release(String email) {
+        String normalized = EmailRegistry.normalize(email);
+        if (emails.remove(normalized)) {
+            totalLength.addAndGet(-normalized.length());
+        }
+    }
+
+    @Override
+    public void load(String email) {
+        reserve(email);
+    }
+
+    @Override
+    public void clear() {
+        emails.clear();
+        totalLength.set(0);
+    }
+
+    @Override
+    public int size() {
+        return emails.size();
+    }
+
+    @Override
+    public long estimatedHeapBytes() {
+        // 邮箱都是 ASCII, 按每字符 1 字节并对齐到 8 字节估算
+        return (long) emails.size() * (ENTRY_OVERHEAD + 4) + totalLength.get();
+    }
+
+    @Override
+    public String mode() {
+        return "strings";
+    }
+}
@@ -1,49 +1,94 @@
 package com.tr.webwhitelist;
 
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import org.bukkit.Bukkit;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
-import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitTask;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 
 public class TRWhiteList extends JavaPlugin {
+    // 简单的邮箱格式验证, 只编译一次
+    private static final Pattern EMAIL_PATTERN =
+            Pattern.compile("^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$");
+    // Minecraft 玩家名规则
+    private static final Pattern USERNAME_PATTERN = Pattern.compile("[A-Za-z0-9_]{3,16}");
+
     private HttpServer webServer;
-    private String verificationCode;
-    private Map<String, String> messages = new HashMap<>();
-    private int port;
+    private WebServerExecutor webExecutor;
+    private int boundPort = -1;
+    private HttpServer metricsServer;
+    private HttpContext metricsContext;
+    // 网页线程读取的设置快照, 重载时整体替换
+    private volatile RuntimeSettings settings;
     private FileConfiguration config;
-    private FileConfiguration emailConfig;
     private File emailFile;
-    private Set<String> registeredEmails = new HashSet<>();
-    private List<String> allowedEmailSuffixes = new ArrayList<>();
+    private EmailStorage emailStorage;
+    private EmailRegistry registeredEmails;
+    // 已注册邮箱在后台加载, 完成前注册请求返回 503
+    private CompletableFuture<Void> registryLoad;
+    private volatile boolean registryReady;
+    private WhitelistQueue whitelistQueue;
+    private StaticAssets staticAssets;
+    // 未启用 JSON 接口时为 null
+    private RegistrationTracker registrations;
+    // 注册审计日志, 未启用时为 null
+    private volatile AuditLog audit;
+    private long maxStatusWaitSeconds;
+    // 最近一次批量导入, 同一时间只运行一个
+    private volatile BulkTransfer.ImportJob importJob;
+    private final Metrics metrics = new Metrics();
+
+    public TRWhiteList() {
+        super();
+    }
+
+    // 供基准测试在服务器之外创建插件
+    protected TRWhiteList(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onEnable() {
+        long enableStarted = System.nanoTime();
         // 确保插件目录存在
         if (!getDataFolder().exists()) {
             getDataFolder().mkdirs();
@@ -53,22 +98,50 @@ public class TRWhiteList extends JavaPlugin {
         saveDefaultConfig();
         config = getConfig();
         
-        // 初始化邮箱配置文件
-        emailFile = new File(getDataFolder(), "emails.yml");
-        if (!emailFile.exists()) {
-            saveResource("emails.yml", false);
-        }
-        emailConfig = YamlConfiguration.loadConfiguration(emailFile);
-        
         // 确保资源文件存在
         ensureResourceFiles();
         
         // 初始化配置
         reloadConfig();
+        settings = RuntimeSettings.load(config, getLogger(), null);
+        long configMillis = millisSince(enableStarted);
+        
+        // 在后台打开邮箱存储并加载已注册邮箱, 启用耗时与邮箱数量无关
+        emailFile = new File(getDataFolder(), "emails.yml");
+        registeredEmails = EmailRegistry.create(config.getString("email-index.mode", "strings"));
+        registryLoad = CompletableFuture.runAsync(this::loadRegistry,
+                task -> new NamedThreadFactory("TRWhiteList-Load").newThread(task).start());
+        
+        // 白名单队列: 后台解析玩家, 每 tick 批量应用
+        whitelistQueue = new WhitelistQueue(getLogger(), Bukkit::getOfflinePlayer,
+                new ExpiringCache<>(config.getInt("whitelist-queue.profile-cache-size", 1000),
+                        config.getLong("whitelist-queue.profile-cache-ttl-seconds", 600), TimeUnit.SECONDS),
+                config.getInt("whitelist-queue.resolver-threads", 2),
+                config.getInt("whitelist-queue.max-per-tick", 20),
+                config.getLong("whitelist-queue.max-millis-per-tick", 5),
+                this::onWhitelistComplete, metrics);
+        Bukkit.getScheduler().runTaskTimer(this, whitelistQueue::drain, 1L, 1L);
+        if (config.getBoolean("api.enabled", true)) {
+            registrations = new RegistrationTracker(config.getInt("api.max-results", 10000),
+                    config.getLong("api.result-ttl-seconds", 600), config.getInt("api.max-waiters", 1000));
+            maxStatusWaitSeconds = config.getLong("api.max-wait-seconds", 30);
+        }
+        if (config.getBoolean("audit.enabled", true)) {
+            audit = new AuditLog(new File(getDataFolder(), "audit"), config.getInt("audit.buffer-size", 8192),
+                    config.getBoolean("audit.gzip", false), config.getInt("audit.retention-days", 30),
+                    config.getString("audit.email-hash-secret", ""), getLogger());
+        }
+        registerGauges();
         
+        long webStarted = System.nanoTime();
         try {
+            staticAssets = new StaticAssets(getDataFolder(), this::getWebFile, getLogger(),
+                    config.getLong("static-files.max-age-seconds", 3600),
+                    config.getLong("static-files.mmap-threshold-kb", 256) * 1024,
+                    config.getInt("static-files.gzip-min-bytes", 1024),
+                    config.getBoolean("static-files.watch", true));
             startWebServer();
-            getLogger().info("Web server started on port " + port);
+            getLogger().info("Web server started on port " + boundPort);
         } catch (IOException e) {
             getLogger().log(Level.SEVERE, "Failed to start web server", e);
             getServer().getPluginManager().disablePlugin(this);
@@ -78,6 +151,44 @@ public class TRWhiteList extends JavaPlugin {
         // 注册命令
         registerCommand("trwl-reload", new ReloadCommand());
         registerCommand("trwl-clear-emails", new ClearEmailsCommand());
+        registerCommand("trwl-import", new ImportCommand());
+        registerCommand("trwl-export", new ExportCommand());
+        getLogger().info("Enabled in " + millisSince(enableStarted) + " ms (config " + configMillis
+                + " ms, web server " + millisSince(webStarted) + " ms), registered emails are loading in the background");
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    // 后台线程: 打开存储并读入所有邮箱, 之后才接受注册
+    private void loadRegistry() {
+        try {
+            long started = System.nanoTime();
+            emailStorage = openEmailStorage();
+            long openMillis = millisSince(started);
+            loadEmailConfig();
+            // 共用的存储: 之后其他服务器注册的邮箱也加入本地缓存
+            emailStorage.startSync(registeredEmails::load, registeredEmails::release);
+            registryReady = true;
+            getLogger().info("Registered emails ready after " + millisSince(started) + " ms (storage open "
+                    + openMillis + " ms, read " + (millisSince(started) - openMillis) + " ms)");
+        } catch (RuntimeException e) {
+            // 不接受注册, 以免重复使用已注册的邮箱
+            getLogger().log(Level.SEVERE, "Could not load registered emails, registrations stay disabled", e);
+            throw e;
+        }
+    }
+
+    // 基准测试等待加载完成
+    CompletableFuture<Void> getRegistryLoad() {
+        return registryLoad;
+    }
+
+    // 实际监听的端口, 配置为 0 时由系统分配; 未启动时为 -1
+    int getWebPort() {
+        HttpServer server = webServer;
+        return server != null ? server.getAddress().getPort() : -1;
     }
 
     private void registerCommand(String commandName, CommandExecutor executor) {
@@ -97,9 +208,7 @@ public class TRWhiteList extends JavaPlugin {
                 return true;
             }
             
-            reloadConfig();
-            restartWebServer();
-            sender.sendMessage("§aConfiguration reloaded and web server restarted!");
+            reloadSettings(sender);
             return true;
         }
     }
@@ -112,58 +221,305 @@ public class TRWhiteList extends JavaPlugin {
                 return true;
             }
             
-            registeredEmails.clear();
-            saveEmailConfig();
-            sender.sendMessage("§aEmail registry cleared!");
+            if (!registryReady) {
+                sender.sendMessage("§cRegistered emails are still loading, please try again shortly");
+                return true;
+            }
+            // 清空写盘期间暂停注册, 以免新注册的邮箱被随后的清空删掉
+            registryReady = false;
+            EmailStorage storage = emailStorage;
+            sender.sendMessage("§eClearing registered emails...");
+            CompletableFuture.runAsync(() -> {
+                storage.clear();
+                storage.flush();
+            }, task -> new NamedThreadFactory("TRWhiteList-Clear").newThread(task).start())
+                    .whenComplete((ignored, error) -> Bukkit.getScheduler().runTask(TRWhiteList.this, () -> {
+                        // 期间插件已关闭
+                        if (emailStorage != storage) {
+                            return;
+                        }
+                        if (error != null) {
+                            getLogger().log(Level.SEVERE, "Could not clear registered emails", error);
+                            sender.sendMessage("§cClearing failed, see console for details");
+                        } else {
+                            registeredEmails.clear();
+                            sender.sendMessage("§aEmail registry cleared!");
+                        }
+                        registryReady = true;
+                    }));
+            return true;
+        }
+    }
+
+    // /trwl-import <文件> [csv|jsonl]: 从插件目录中的文件导入, 每 5 秒报告进度
+    private class ImportCommand implements CommandExecutor {
+        @Override
+        public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+            if (!sender.hasPermission("trwhitelist.admin")) {
+                sender.sendMessage("§cYou don't have permission!");
+                return true;
+            }
+            if (args.length < 1 || args.length > 2) {
+                return false;
+            }
+            if (!registryReady) {
+                sender.sendMessage("§cRegistered emails are still loading, please try again shortly");
+                return true;
+            }
+            
+            File file = getDataFile(args[0]);
+            if (file == null || !file.isFile()) {
+                sender.sendMessage("§cNo such file in the plugin folder: " + args[0]);
+                return true;
+            }
+            BulkTransfer.Format format = BulkTransfer.Format.of(args.length > 1 ? args[1] : file.getName());
+            if (format == null) {
+                sender.sendMessage("§cUnknown format, use csv or jsonl");
+                return true;
+            }
+            Reader reader;
+            try {
+                reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                sender.sendMessage("§cCould not open " + file.getName() + ": " + e.getMessage());
+                return true;
+            }
+            BulkTransfer.ImportJob job = startImport(file.getName(), format);
+            if (job == null) {
+                closeQuietly(reader);
+                sender.sendMessage("§cAnother import is running. " + importJob.describe());
+                return true;
+            }
+            
+            sender.sendMessage("§eImporting " + file.getName() + "...");
+            new NamedThreadFactory("TRWhiteList-Import").newThread(() -> {
+                try {
+                    job.run(reader, TRWhiteList.this::submitImported);
+                } finally {
+                    closeQuietly(reader);
+                }
+            }).start();
+            BukkitTask progress = Bukkit.getScheduler().runTaskTimer(TRWhiteList.this,
+                    () -> sender.sendMessage("§7" + job.describe()), 100L, 100L);
+            job.done.thenRun(() -> Bukkit.getScheduler().runTask(TRWhiteList.this, () -> {
+                progress.cancel();
+                sender.sendMessage("§a" + job.describe());
+            }));
+            return true;
+        }
+    }
+
+    // /trwl-export [csv|jsonl]: 写到插件目录下的 exports/
+    private class ExportCommand implements CommandExecutor {
+        @Override
+        public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+            if (!sender.hasPermission("trwhitelist.admin")) {
+                sender.sendMessage("§cYou don't have permission!");
+                return true;
+            }
+            if (args.length > 1) {
+                return false;
+            }
+            if (!registryReady) {
+                sender.sendMessage("§cRegistered emails are still loading, please try again shortly");
+                return true;
+            }
+            BulkTransfer.Format format = args.length > 0 ? BulkTransfer.Format.of(args[0]) : BulkTransfer.Format.CSV;
+            if (format == null) {
+                sender.sendMessage("§cUnknown format, use csv or jsonl");
+                return true;
+            }
+            
+            File folder = new File(getDataFolder(), "exports");
+            String name = "emails-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date())
+                    + "." + format.extension;
+            File file = new File(folder, name);
+            sender.sendMessage("§eExporting registered emails to exports/" + name + "...");
+            EmailStorage storage = emailStorage;
+            CompletableFuture.supplyAsync(() -> {
+                folder.mkdirs();
+                try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                    return BulkTransfer.export(storage, format, writer);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, task -> new NamedThreadFactory("TRWhiteList-Export").newThread(task).start())
+                    .whenComplete((count, error) -> Bukkit.getScheduler().runTask(TRWhiteList.this, () -> {
+                        if (error != null) {
+                            getLogger().log(Level.SEVERE, "Export failed", error);
+                            sender.sendMessage("§cExport failed, see console for details");
+                        } else {
+                            sender.sendMessage("§aExported " + count + " emails to exports/" + name);
+                        }
+                    }));
             return true;
         }
     }
 
+    // 插件目录中的文件, 路径超出插件目录时返回 null
+    private File getDataFile(String name) {
+        try {
+            File folder = getDataFolder().getCanonicalFile();
+            File file = new File(folder, name).getCanonicalFile();
+            return file.toPath().startsWith(folder.toPath()) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Reader reader) {
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+            // 只读文件, 关闭失败不影响结果
+        }
+    }
+
+    // 同一时间只运行一个导入, 已有导入在进行时返回 null
+    synchronized BulkTransfer.ImportJob startImport(String source, BulkTransfer.Format format) {
+        BulkTransfer.ImportJob current = importJob;
+        if (current != null && !current.isDone()) {
+            return null;
+        }
+        BulkTransfer.ImportJob job = new BulkTransfer.ImportJob(source, format, settings.importMaxInFlight);
+        importJob = job;
+        job.done.thenRun(() -> getLogger().info(job.describe()));
+        return job;
+    }
+
+    // 导入的单个条目: 按已注册邮箱去重, 之后和网页注册一样在后台解析并按 tick 预算应用
+    private WhitelistQueue.Registration submitImported(String username, String email) {
+        WhitelistQueue queue = whitelistQueue;
+        if (queue == null) {
+            throw new IllegalStateException("Whitelist queue is shut down");
+        }
+        String normalized = EmailRegistry.normalize(email);
+        if (!reserveEmail(normalized, username)) {
+            return null;
+        }
+        WhitelistQueue.Registration registration = new WhitelistQueue.Registration(username, normalized, true);
+        queue.submit(registration);
+        return registration;
+    }
+
     @Override
     public void onDisable() {
+        // 先让导入停止提交, 网页上传的导入也不会占住网页线程
+        BulkTransfer.ImportJob job = importJob;
+        if (job != null) {
+            job.cancel("Plugin disabled");
+        }
         stopWebServer();
-        saveEmailConfig();
+        if (staticAssets != null) {
+            staticAssets.close();
+            staticAssets = null;
+        }
+        if (registrations != null) {
+            registrations.shutdown();
+            registrations = null;
+        }
+        RuntimeSettings current = settings;
+        if (current != null) {
+            current.shutdown(2000);
+        }
+        if (whitelistQueue != null) {
+            whitelistQueue.shutdown(2000);
+            whitelistQueue = null;
+        }
+        // 白名单结果也会写入审计日志, 在队列之后关闭
+        if (audit != null) {
+            audit.close();
+            audit = null;
+        }
+        // 加载尚未结束时等它完成, 再关闭存储
+        if (registryLoad != null) {
+            try {
+                registryLoad.get(60, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                getLogger().log(Level.WARNING, "Registered email loading did not finish cleanly", e);
+            }
+            registryLoad = null;
+            registryReady = false;
+        }
+        if (emailStorage != null) {
+            emailStorage.close();
+            emailStorage = null;
+        }
     }
 
     @Override
     public void reloadConfig() {
         super.reloadConfig();
         config = getConfig();
-        
-        // 加载端口
-        port = config.getInt("port", 11434);
-        
-        // 加载验证码
-        verificationCode = config.getString("verification-code", "default");
-        
-        // 加载允许的邮箱后缀
-        allowedEmailSuffixes = config.getStringList("allowed-email-suffixes");
-        
-        // 加载消息
-        messages.clear();
-        if (config.isConfigurationSection("messages")) {
-            config.getConfigurationSection("messages").getKeys(false).forEach(key -> {
-                messages.put(key, config.getString("messages." + key, ""));
-            });
+    }
+
+    // 在后台读取配置并构建新快照, 回到主线程后一次性替换; 端口不变时不重启网页服务器
+    private void reloadSettings(CommandSender sender) {
+        RuntimeSettings previous = settings;
+        sender.sendMessage("§eReloading configuration...");
+        CompletableFuture.supplyAsync(() -> RuntimeSettings.load(loadConfigFile(), getLogger(), previous))
+                .whenComplete((next, error) -> Bukkit.getScheduler().runTask(this, () -> {
+                    if (error != null) {
+                        getLogger().log(Level.SEVERE, "Failed to reload configuration", error);
+                        sender.sendMessage("§cReload failed, keeping the previous configuration. See console for details.");
+                        return;
+                    }
+                    publishSettings(next);
+                    sender.sendMessage(next.port == boundPort
+                            ? "§aConfiguration reloaded!"
+                            : "§cConfiguration reloaded, but the web server could not move to port " + next.port + "!");
+                }));
+    }
+
+    // 与 JavaPlugin.reloadConfig 相同, 但不修改插件状态, 可以在后台线程调用
+    private FileConfiguration loadConfigFile() {
+        YamlConfiguration loaded = YamlConfiguration.loadConfiguration(new File(getDataFolder(), "config.yml"));
+        InputStream defaults = getResource("config.yml");
+        if (defaults != null) {
+            loaded.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
         }
-        
-        // 设置默认消息
-        messages.putIfAbsent("success", "<h1 style='color:green'>Success! Player added.</h1>");
-        messages.putIfAbsent("invalid_code", "<h1 style='color:red'>Invalid code!</h1>");
-        messages.putIfAbsent("email_required", "<h1 style='color:red'>Email is required!</h1>");
-        messages.putIfAbsent("invalid_email", "<h1 style='color:red'>Invalid email format!</h1>");
-        messages.putIfAbsent("email_suffix_not_allowed", "<h1 style='color:red'>Email suffix not allowed! Allowed: {suffixes}</h1>");
-        messages.putIfAbsent("email_already_registered", "<h1 style='color:red'>This email is already registered!</h1>");
-        messages.putIfAbsent("console_success", "Added {player} to whitelist");
-        messages.putIfAbsent("console_error", "Error: {error}");
-        messages.putIfAbsent("index_title", "TR WhiteList Portal");
-        messages.putIfAbsent("username_label", "Minecraft Username");
-        messages.putIfAbsent("email_label", "Email Address");
-        messages.putIfAbsent("code_label", "Verification Code");
-        messages.putIfAbsent("submit_button", "Add to Whitelist");
-        
-        // 加载已注册邮箱
-        loadEmailConfig();
+        return loaded;
+    }
+
+    // 主线程调用
+    private void publishSettings(RuntimeSettings next) {
+        RuntimeSettings previous = settings;
+        config = next.config;
+        settings = next;
+        if (next.port != boundPort) {
+            rebindWebServer();
+        } else if (!next.sameMetricsListener(previous)) {
+            stopMetrics();
+            startMetrics();
+        }
+        previous.retire(next);
+        // 重载时同时丢弃静态文件缓存, 文件监听不可用时也能生效
+        staticAssets.invalidateAll();
+        getLogger().info("Configuration reloaded");
+    }
+
+    // 导出时读取当前值, 重载后重建的对象也能读到
+    private void registerGauges() {
+        metrics.gauge("trwhitelist_whitelist_queue_depth", "Registrations waiting to be applied on the main thread",
+                () -> whitelistQueue != null ? whitelistQueue.getQueueDepth() : 0);
+        metrics.gauge("trwhitelist_whitelist_last_batch_size", "Whitelist entries applied in the last tick that applied any",
+                () -> whitelistQueue != null ? whitelistQueue.getLastBatchSize() : 0);
+        metrics.gauge("trwhitelist_registered_emails", "Registered or reserved emails",
+                registeredEmails::size);
+        metrics.gauge("trwhitelist_registry_ready", "1 once registered emails are loaded and registrations are accepted",
+                () -> registryReady ? 1 : 0);
+        metrics.gauge("trwhitelist_web_rejected_requests", "Requests answered with 503 since the web executor was last started",
+                () -> webExecutor != null ? webExecutor.getRejectedCount() : 0);
+        metrics.gauge("trwhitelist_api_status_waiters", "Parked /api/status long-poll requests",
+                () -> registrations != null ? registrations.getWaiters() : 0);
+        metrics.gauge("trwhitelist_audit_dropped_total", "Audit log entries dropped because the buffer was full",
+                () -> audit != null ? audit.getDropped() : 0);
+        metrics.gauge("trwhitelist_mail_queue_pending", "Verification mails waiting to be sent", () -> {
+            MailQueue queue = settings.mailQueue;
+            return queue != null ? queue.getPending() : 0;
+        });
     }
 
     // 确保资源文件存在
@@ -174,11 +530,6 @@ public class TRWhiteList extends JavaPlugin {
             saveResource("config.yml", false);
         }
         
-        // 确保邮箱配置文件存在
-        if (!emailFile.exists()) {
-            saveResource("emails.yml", false);
-        }
-        
         // 确保HTML文件存在
         File htmlFile = new File(getDataFolder(), "index.html");
         if (!htmlFile.exists()) {
@@ -242,154 +593,364 @@ public class TRWhiteList extends JavaPlugin {
     }
 
     private void startWebServer() throws IOException {
-        stopWebServer(); // 确保没有运行中的服务器
-        
-        webServer = HttpServer.create(new InetSocketAddress(port), 0);
-        webServer.createContext("/", new WebHandler(this));
-        webServer.setExecutor(null); // 使用默认执行器
-        webServer.start();
+        RuntimeSettings current = settings;
+        // 先绑定端口, 失败时不会留下线程池
+        HttpServer server = HttpServer.create(new InetSocketAddress(current.port), 0);
+        server.createContext("/", new WebHandler(this));
+        server.createContext("/send-code", new SendCodeHandler(this));
+        server.createContext("/admin", new AdminHandler(this));
+        if (registrations != null) {
+            server.createContext("/api", new ApiHandler(this));
+        }
+        WebServerExecutor executor = WebServerExecutor.create(config.getConfigurationSection("web-server"), getLogger());
+        server.setExecutor(executor);
+        server.start();
+        webServer = server;
+        webExecutor = executor;
+        boundPort = current.port;
+        startMetrics();
+        getLogger().info("Web server executor: " + executor.getMode());
     }
     
-    private void restartWebServer() {
+    // 先在新端口上启动, 旧服务器在后台等待进行中的请求完成后关闭
+    private void rebindWebServer() {
+        HttpServer oldServer = webServer;
+        WebServerExecutor oldExecutor = webExecutor;
+        int oldPort = boundPort;
+        stopMetrics();
         try {
-            stopWebServer();
             startWebServer();
-            getLogger().info("Web server restarted on port " + port);
         } catch (IOException e) {
-            getLogger().log(Level.SEVERE, "Failed to restart web server", e);
+            getLogger().log(Level.SEVERE, "Failed to bind web server to port " + settings.port
+                    + ", still listening on port " + oldPort, e);
+            startMetrics();
+            return;
         }
+        getLogger().info("Web server moved from port " + oldPort + " to " + boundPort);
+        
+        int drainSeconds = Math.max(0, config.getInt("web-server.drain-seconds", 5));
+        CompletableFuture.runAsync(() -> {
+            oldServer.stop(drainSeconds);
+            oldExecutor.shutdown(2000);
+        });
     }
 
     private void stopWebServer() {
+        stopMetrics();
         if (webServer != null) {
             webServer.stop(0);
             getLogger().info("Web server stopped");
             webServer = null;
+            boundPort = -1;
+        }
+        if (webExecutor != null) {
+            webExecutor.shutdown(2000);
+            webExecutor = null;
+        }
+    }
+
+    // 指标默认挂在网页端口上, 配置了单独端口时另起一个只有 /metrics 的服务器
+    private void startMetrics() {
+        RuntimeSettings current = settings;
+        if (!current.metricsEnabled || webServer == null) {
+            return;
+        }
+        try {
+            if (current.metricsPort <= 0 || current.metricsPort == boundPort) {
+                metricsContext = webServer.createContext(current.metricsPath, new MetricsHandler(this));
+            } else {
+                HttpServer server = HttpServer.create(new InetSocketAddress(current.metricsPort), 0);
+                server.createContext(current.metricsPath, new MetricsHandler(this));
+                server.start();
+                metricsServer = server;
+            }
+            getLogger().info("Metrics available at " + current.metricsPath + " on port "
+                    + (metricsServer != null ? current.metricsPort : boundPort));
+        } catch (IOException | IllegalArgumentException e) {
+            getLogger().log(Level.SEVERE, "Failed to start metrics endpoint", e);
+        }
+    }
+
+    private void stopMetrics() {
+        if (metricsContext != null) {
+            if (webServer != null) {
+                webServer.removeContext(metricsContext);
+            }
+            metricsContext = null;
+        }
+        if (metricsServer != null) {
+            metricsServer.stop(0);
+            metricsServer = null;
+        }
+    }
+
+    // 按配置打开邮箱存储, 日志模式下自动迁移旧的 emails.yml
+    private EmailStorage openEmailStorage() {
+        String type = config.getString("email-storage.type", "journal");
+        if ("jdbc".equalsIgnoreCase(type)) {
+            // 数据库不可用时不能退回本地文件, 否则各服务器又会各自判断邮箱是否已注册
+            try {
+                return openJdbcStorage();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if ("journal".equalsIgnoreCase(type)) {
+            try {
+                JournalEmailStorage journal = new JournalEmailStorage(getDataFolder(), getLogger(),
+                        config.getLong("email-storage.group-commit-millis", 2),
+                        config.getInt("email-storage.compact-after", 10000),
+                        metrics.persistenceFlush);
+                if (journal.isEmpty() && emailFile.exists()) {
+                    int migrated = journal.importFrom(
+                            new YamlEmailStorage(emailFile, getLogger(), metrics.persistenceFlush));
+                    File backup = new File(getDataFolder(), "emails.yml.migrated");
+                    Files.move(emailFile.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    getLogger().info("Migrated " + migrated + " emails from emails.yml to the email journal");
+                }
+                return journal;
+            } catch (IOException e) {
+                getLogger().log(Level.SEVERE, "Could not open email journal, falling back to emails.yml", e);
+            }
+        } else if (!"yaml".equalsIgnoreCase(type)) {
+            getLogger().warning("Unknown email-storage.type '" + type + "', using emails.yml");
+        }
+        
+        if (!emailFile.exists()) {
+            saveResource("emails.yml", false);
+        }
+        return new YamlEmailStorage(emailFile, getLogger(), metrics.persistenceFlush);
+    }
+
+    // 多个服务器共用的数据库, 表为空时从本地的日志或 emails.yml 迁移 (本地文件保留不动)
+    private JdbcEmailStorage openJdbcStorage() throws IOException {
+        JdbcEmailStorage jdbc = new JdbcEmailStorage(
+                config.getString("email-storage.jdbc.url", ""),
+                config.getString("email-storage.jdbc.driver", ""),
+                config.getString("email-storage.jdbc.username", ""),
+                config.getString("email-storage.jdbc.password", ""),
+                config.getString("email-storage.jdbc.table", "trwl_emails"),
+                config.getInt("email-storage.jdbc.pool-size", 4),
+                TimeUnit.SECONDS.toMillis(config.getLong("email-storage.jdbc.sync-seconds", 5)),
+                getLogger(), metrics.persistenceFlush);
+        try {
+            if (jdbc.isEmpty()) {
+                EmailStorage local = null;
+                if (new File(getDataFolder(), "emails.snapshot").exists()
+                        || new File(getDataFolder(), "emails.journal").exists()) {
+                    local = new JournalEmailStorage(getDataFolder(), getLogger(), 0, Integer.MAX_VALUE,
+                            metrics.persistenceFlush);
+                } else if (emailFile.exists()) {
+                    local = new YamlEmailStorage(emailFile, getLogger(), metrics.persistenceFlush);
+                }
+                if (local != null) {
+                    try {
+                        int migrated = jdbc.importFrom(local);
+                        getLogger().info("Migrated " + migrated + " local emails to the shared email database");
+                    } finally {
+                        local.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            jdbc.close();
+            throw e;
         }
+        return jdbc;
     }
 
     // 加载邮箱配置
     private void loadEmailConfig() {
         registeredEmails.clear();
-        if (emailConfig != null && emailConfig.isConfigurationSection("registered")) {
-            ConfigurationSection section = emailConfig.getConfigurationSection("registered");
-            if (section != null) {
-                for (String key : section.getKeys(false)) {
-                    registeredEmails.add(key.toLowerCase());
-                }
+        if (emailStorage != null) {
+            try {
+                emailStorage.forEach((email, username) -> registeredEmails.load(email));
+            } catch (IOException e) {
+                getLogger().log(Level.SEVERE, "Could not load registered emails", e);
             }
         }
-        getLogger().info("Loaded " + registeredEmails.size() + " registered emails");
+        getLogger().info(String.format(Locale.ROOT, "Loaded %d registered emails (%s index, ~%.1f MB heap)",
+                registeredEmails.size(), registeredEmails.mode(),
+                registeredEmails.estimatedHeapBytes() / (1024.0 * 1024.0)));
     }
     
-    // 保存邮箱配置
-    private void saveEmailConfig() {
-        if (emailConfig == null) {
-            getLogger().warning("Cannot save emails.yml: emailConfig is null");
-            return;
+    // 每个注册请求结束时调用一次: 记录指标, 并写入审计日志 (表单还没读到时只有 IP)
+    void recordAttempt(HttpExchange exchange, RuntimeSettings settings, String source, FormParser.Form form,
+                       Metrics.RequestOutcome outcome, long startNanos) {
+        metrics.recordRequest(outcome, startNanos);
+        AuditLog log = audit;
+        if (log != null) {
+            log.record(source, settings.clientAddress(exchange), form != null ? form.username : null,
+                    form != null ? form.email : null, outcome.label, System.nanoTime() - startNanos);
+        }
+    }
+
+    // 预留邮箱, 成功后必须调用 addToWhitelist; 共用的存储在本地预留后再到数据库占用
+    boolean reserveEmail(String email, String username) {
+        // 调用方已校验; 存储中的玩家名列按合法玩家名的长度定义
+        if (!isValidUsername(username)) {
+            throw new IllegalArgumentException("Invalid username '" + username + "'");
+        }
+        String normalized = EmailRegistry.normalize(email);
+        if (!registeredEmails.reserve(normalized)) {
+            return false;
         }
-        
         try {
-            emailConfig.set("registered", null); // 清除旧数据
-            
-            for (String email : registeredEmails) {
-                emailConfig.set("registered." + email, true);
-            }
-            
-            emailConfig.save(emailFile);
-            getLogger().info("Saved " + registeredEmails.size() + " registered emails");
+            // 已在其他服务器注册时留在本地缓存中
+            return emailStorage.claim(normalized, username);
         } catch (IOException e) {
-            getLogger().log(Level.SEVERE, "Could not save emails.yml", e);
+            registeredEmails.release(normalized);
+            throw new UncheckedIOException(e);
         }
     }
 
-    // 添加白名单并记录邮箱
-    public void addToWhitelist(String username, String email) {
-        Bukkit.getScheduler().runTask(this, () -> {
-            try {
-                // 获取玩家对象
-                OfflinePlayer player = Bukkit.getOfflinePlayer(username);
-                
-                // 检查玩家是否已经存在
-                if (player.isWhitelisted()) {
-                    getLogger().info("Player " + username + " is already whitelisted");
-                    return;
+    // 注册没有成功, 邮箱可以再次使用
+    private void releaseEmail(String email) {
+        registeredEmails.release(email);
+        emailStorage.unclaim(email);
+    }
+
+    // 添加白名单并记录邮箱, 调用前邮箱已通过 reserveEmail 预留; 返回的注册在主线程应用后完成
+    public WhitelistQueue.Registration addToWhitelist(String username, String email) {
+        WhitelistQueue.Registration registration = new WhitelistQueue.Registration(username, EmailRegistry.normalize(email));
+        whitelistQueue.submit(registration);
+        return registration;
+    }
+
+    // 注册请求被拒绝的原因, messageKey 为 null 表示缺少参数
+    static final class Rejection {
+        final int status;
+        final String messageKey;
+        final Metrics.RequestOutcome outcome;
+        final long retryAfter;
+
+        Rejection(int status, String messageKey, Metrics.RequestOutcome outcome, long retryAfter) {
+            this.status = status;
+            this.messageKey = messageKey;
+            this.outcome = outcome;
+            this.retryAfter = retryAfter;
+        }
+
+        Rejection(int status, String messageKey, Metrics.RequestOutcome outcome) {
+            this(status, messageKey, outcome, 0);
+        }
+    }
+
+    // 依次校验注册请求, 全部通过时预留邮箱并返回 null, 之后必须调用 addToWhitelist
+    Rejection checkRegistration(RuntimeSettings settings, String username, String email, String code) {
+        long retryAfter;
+        // 验证必填字段
+        if (username.isEmpty() || email.isEmpty() || code.isEmpty()) {
+            return new Rejection(400, null, Metrics.RequestOutcome.MISSING_PARAMETERS);
+        }
+        // 验证玩家名, 不合法的名字 (例如带换行) 不能进入白名单和邮箱存储
+        if (!isValidUsername(username)) {
+            return new Rejection(400, "invalid_username", Metrics.RequestOutcome.INVALID_USERNAME);
+        }
+        // 按邮箱限流
+        if ((retryAfter = settings.acquireEmailRateLimit(email)) > 0) {
+            return new Rejection(429, "too_many_requests", Metrics.RequestOutcome.RATE_LIMITED, retryAfter);
+        }
+        // 验证邮箱格式
+        if (!isValidEmail(email)) {
+            return new Rejection(400, "invalid_email", Metrics.RequestOutcome.INVALID_EMAIL);
+        }
+        // 验证邮箱后缀
+        if (!settings.isEmailSuffixAllowed(email)) {
+            return new Rejection(403, "email_suffix_not_allowed", Metrics.RequestOutcome.SUFFIX_NOT_ALLOWED);
+        }
+        // 验证邮箱是否已注册
+        if (registeredEmails.contains(email)) {
+            return new Rejection(403, "email_already_registered", Metrics.RequestOutcome.ALREADY_REGISTERED);
+        }
+        // 验证验证码
+        if (!settings.checkVerificationCode(email, code)) {
+            return new Rejection(403, "invalid_code", Metrics.RequestOutcome.INVALID_CODE);
+        }
+        // 原子预留邮箱, 并发的相同请求只有一个能通过
+        if (!reserveEmail(email, username)) {
+            return new Rejection(403, "email_already_registered", Metrics.RequestOutcome.ALREADY_REGISTERED);
+        }
+        return null;
+    }
+
+    // 白名单队列在主线程回调
+    private void onWhitelistComplete(WhitelistQueue.Registration registration, WhitelistQueue.Outcome outcome,
+                                     Exception error) {
+        String username = registration.username;
+        AuditLog log = audit;
+        if (log != null) {
+            log.record(registration.imported ? "import" : "whitelist", null, username, registration.email,
+                    outcome.name().toLowerCase(Locale.ROOT), System.nanoTime() - registration.submittedNanos);
+        }
+        switch (outcome) {
+            case ADDED:
+                // 记录邮箱, 批量导入只在结束时汇总输出
+                emailStorage.append(registration.email, username);
+                if (!registration.imported) {
+                    getLogger().info(formatMessage("console_success", "player", username));
                 }
-                
-                // 添加玩家到白名单
-                player.setWhitelisted(true);
-                
-                // 记录邮箱
-                String normalizedEmail = email.toLowerCase();
-                if (!registeredEmails.contains(normalizedEmail)) {
-                    registeredEmails.add(normalizedEmail);
-                    saveEmailConfig();
+                break;
+            case ALREADY_WHITELISTED:
+                // 导入的邮箱仍然属于该玩家
+                if (registration.imported) {
+                    emailStorage.append(registration.email, username);
+                    break;
                 }
-                
-                String msg = messages.get("console_success")
-                    .replace("{player}", username);
-                getLogger().info(msg);
-            } catch (Exception e) {
-                String msg = messages.get("console_error")
-                    .replace("{error}", e.getMessage())
-                    .replace("{player}", username);
-                getLogger().warning(msg);
-            }
-        });
+                releaseEmail(registration.email);
+                getLogger().info("Player " + username + " is already whitelisted");
+                break;
+            default:
+                releaseEmail(registration.email);
+                Map<String, String> values = new HashMap<>();
+                values.put("error", String.valueOf(error != null ? error.getMessage() : null));
+                values.put("player", username);
+                getLogger().warning(settings.messageTemplates.get("console_error").render(values));
+                break;
+        }
     }
 
     public String getVerificationCode() {
-        return verificationCode;
+        return settings.verificationCode;
     }
 
     public Map<String, String> getMessages() {
-        return messages;
+        return settings.messages;
+    }
+
+    // 渲染单个占位符的消息
+    String formatMessage(String key, String placeholder, String value) {
+        return settings.formatMessage(key, placeholder, value);
+    }
+
+    RuntimeSettings getSettings() {
+        return settings;
     }
 
     public File getWebFile(String name) {
         return new File(getDataFolder(), name);
     }
 
-    // 应用语言设置到HTML内容
-    private String applyLanguageSettings(String htmlContent) {
-        if (htmlContent == null || htmlContent.isEmpty()) {
-            return htmlContent;
-        }
-        
-        String result = htmlContent;
-        for (Map.Entry<String, String> entry : messages.entrySet()) {
-            String placeholder = "${" + entry.getKey() + "}";
-            result = result.replace(placeholder, entry.getValue());
-        }
-        return result;
+    // 验证玩家名
+    static boolean isValidUsername(String username) {
+        return username != null && USERNAME_PATTERN.matcher(username).matches();
     }
 
     // 验证邮箱格式
-    private boolean isValidEmail(String email) {
+    static boolean isValidEmail(String email) {
         if (email == null || email.isEmpty()) {
             return false;
         }
         
-        // 简单的邮箱格式验证
-        String emailRegex = "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$";
-        return Pattern.compile(emailRegex).matcher(email).matches();
-    }
-    
-    // 验证邮箱后缀是否允许
-    private boolean isEmailSuffixAllowed(String email) {
-        if (allowedEmailSuffixes.isEmpty()) {
-            return true; // 如果没有限制，则允许所有
-        }
-        
-        for (String suffix : allowedEmailSuffixes) {
-            if (email.toLowerCase().endsWith(suffix.toLowerCase())) {
-                return true;
-            }
-        }
-        return false;
+        return EMAIL_PATTERN.matcher(email).matches();
     }
 
     static class WebHandler implements HttpHandler {
+        private static final byte[] MISSING_PARAMETERS = "<h1>Missing parameters</h1>".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] REQUEST_TOO_LARGE = "<h1>Request too large</h1>".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] SERVER_BUSY = "Server busy, please retry".getBytes(StandardCharsets.UTF_8);
+        static final byte[] STARTING = "Server is starting, please retry shortly".getBytes(StandardCharsets.UTF_8);
+
         private final TRWhiteList plugin;
 
         public WebHandler(TRWhiteList plugin) {
@@ -398,84 +959,93 @@ public class TRWhiteList extends JavaPlugin {
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String response;
+            long started = System.nanoTime();
+            Metrics metrics = plugin.metrics;
+            RuntimeSettings settings = plugin.settings;
+            boolean post = "POST".equalsIgnoreCase(exchange.getRequestMethod());
+            
+            // 线程池已满, 直接拒绝
+            if (WebServerExecutor.isShedding()) {
+                sendServiceUnavailable(exchange, SERVER_BUSY, 1);
+                if (post) {
+                    plugin.recordAttempt(exchange, settings, "web", null, Metrics.RequestOutcome.OVERLOADED, started);
+                }
+                return;
+            }
+            // 已注册邮箱还在加载, 页面照常提供
+            if (post && !plugin.registryReady) {
+                sendServiceUnavailable(exchange, STARTING, 5);
+                plugin.recordAttempt(exchange, settings, "web", null, Metrics.RequestOutcome.STARTING, started);
+                return;
+            }
+
+            byte[] response;
             int status = 200;
-            Map<String, String> messages = plugin.getMessages();
+            Metrics.RequestOutcome outcome = null;
+            FormParser.Form form = null;
             
             try {
-                String method = exchange.getRequestMethod();
+                if (!post) {
+                    // 首页和插件目录下的静态文件
+                    plugin.staticAssets.handle(exchange, settings);
+                    return;
+                }
+                // 读取请求体之前先按 IP 限流
+                long retryAfter = settings.acquireIpRateLimit(exchange);
+                if (retryAfter > 0) {
+                    sendTooManyRequests(exchange, settings, retryAfter);
+                    plugin.recordAttempt(exchange, settings, "web", null, Metrics.RequestOutcome.RATE_LIMITED, started);
+                    return;
+                }
                 
-                if ("POST".equalsIgnoreCase(method)) {
-                    // 处理表单提交
-                    String formData = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-                    Map<String, String> params = parseFormData(formData);
-                    
-                    String username = params.getOrDefault("username", "");
-                    String email = params.getOrDefault("email", "");
-                    String code = params.getOrDefault("code", "");
-                    
-                    // 验证必填字段
-                    if (username.isEmpty() || email.isEmpty() || code.isEmpty()) {
-                        response = "<h1>Missing parameters</h1>";
-                        status = 400;
-                    } 
-                    // 验证邮箱格式
-                    else if (!plugin.isValidEmail(email)) {
-                        response = messages.get("invalid_email");
-                        status = 400;
-                    }
-                    // 验证邮箱后缀
-                    else if (!plugin.isEmailSuffixAllowed(email)) {
-                        String suffixes = String.join(", ", plugin.allowedEmailSuffixes);
-                        response = messages.get("email_suffix_not_allowed")
-                                .replace("{suffixes}", suffixes);
-                        status = 403;
-                    }
-                    // 验证邮箱是否已注册
-                    else if (plugin.registeredEmails.contains(email.toLowerCase())) {
-                        response = messages.get("email_already_registered");
-                        status = 403;
-                    }
-                    // 验证验证码
-                    else if (!code.equals(plugin.getVerificationCode())) {
-                        response = messages.get("invalid_code");
-                        status = 403;
-                    }
-                    // 所有验证通过
-                    else {
-                        plugin.addToWhitelist(username, email);
-                        response = messages.get("success");
-                    }
+                // 处理表单提交, 请求体过大时不再读取
+                FormParser parser = settings.formParser;
+                String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                if (contentLength != null && parseLength(contentLength) > parser.getMaxBodyBytes()) {
+                    sendResponse(exchange, 413, "text/html; charset=UTF-8", REQUEST_TOO_LARGE);
+                    plugin.recordAttempt(exchange, settings, "web", null, Metrics.RequestOutcome.TOO_LARGE, started);
+                    return;
+                }
+                long readStarted = System.nanoTime();
+                try {
+                    form = parseFormData(exchange, parser);
+                } catch (FormParser.FormException e) {
+                    sendResponse(exchange, e.status, "text/html; charset=UTF-8",
+                            e.status == 413 ? REQUEST_TOO_LARGE : MISSING_PARAMETERS);
+                    plugin.recordAttempt(exchange, settings, "web", null, e.status == 413
+                            ? Metrics.RequestOutcome.TOO_LARGE : Metrics.RequestOutcome.MISSING_PARAMETERS, started);
+                    return;
+                }
+                metrics.bodyRead.observeSince(readStarted);
+                
+                // 校验并原子预留邮箱, 并发的相同请求只有一个能通过
+                Rejection rejection = plugin.checkRegistration(settings, form.username, form.email, form.code);
+                if (rejection == null) {
+                    plugin.addToWhitelist(form.username, form.email);
+                    response = settings.messageBytes("success");
+                    outcome = Metrics.RequestOutcome.SUCCESS;
                 } else {
-                    // 提供 HTML 页面
-                    File htmlFile = plugin.getWebFile("index.html");
-                    if (htmlFile.exists()) {
-                        String htmlContent = new String(Files.readAllBytes(htmlFile.toPath()), StandardCharsets.UTF_8);
-                        
-                        // 应用语言设置
-                        response = plugin.applyLanguageSettings(htmlContent);
-                    } else {
-                        // 默认表单
-                        String defaultHtml = "<html><body><h1>${index_title}</h1>" +
-                                   "<form method='POST'>" +
-                                   "<label>${username_label}:</label><input type='text' name='username' required><br>" +
-                                   "<label>${email_label}:</label><input type='email' name='email' required><br>" +
-                                   "<label>${code_label}:</label><input type='password' name='code' required><br>" +
-                                   "<input type='submit' value='${submit_button}'>" +
-                                   "</form></body></html>";
-                        
-                        // 应用语言设置
-                        response = plugin.applyLanguageSettings(defaultHtml);
+                    if (rejection.retryAfter > 0) {
+                        exchange.getResponseHeaders().set("Retry-After", Long.toString(rejection.retryAfter));
                     }
+                    response = rejection.messageKey != null ? settings.messageBytes(rejection.messageKey) : MISSING_PARAMETERS;
+                    status = rejection.status;
+                    outcome = rejection.outcome;
                 }
                 
                 // 发送响应
                 exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-                exchange.sendResponseHeaders(status, response.getBytes(StandardCharsets.UTF_8).length);
+                exchange.sendResponseHeaders(status, response.length);
                 try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(response.getBytes(StandardCharsets.UTF_8));
+                    os.write(response);
+                }
+                if (outcome != null) {
+                    plugin.recordAttempt(exchange, settings, "web", form, outcome, started);
                 }
             } catch (Exception e) {
+                if (post) {
+                    plugin.recordAttempt(exchange, settings, "web", form, Metrics.RequestOutcome.ERROR, started);
+                }
                 plugin.getLogger().log(Level.SEVERE, "Web request error", e);
                 String error = "Internal server error";
                 exchange.sendResponseHeaders(500, error.length());
@@ -485,19 +1055,498 @@ public class TRWhiteList extends JavaPlugin {
             }
         }
 
-        private Map<String, String> parseFormData(String formData) {
-            Map<String, String> result = new HashMap<>();
-            for (String pair : formData.split("&")) {
-                String[] entry = pair.split("=");
-                if (entry.length == 2) {
+        private void sendTooManyRequests(HttpExchange exchange, RuntimeSettings settings, long retryAfter) throws IOException {
+            byte[] body = settings.messageBytes("too_many_requests");
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter));
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(429, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+
+        private static void sendServiceUnavailable(HttpExchange exchange, byte[] body, int retryAfter) throws IOException {
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfter));
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(503, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+
+        static FormParser.Form parseFormData(HttpExchange exchange, FormParser parser) throws IOException {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            try (InputStream body = exchange.getRequestBody()) {
+                return parser.parse(body, contentType);
+            }
+        }
+
+        static long parseLength(String value) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    // 按邮箱发送一次性验证码, 邮件进入异步队列, 请求线程不等待发信
+    static class SendCodeHandler implements HttpHandler {
+        private static final byte[] DISABLED = "Email verification is disabled".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] MAIL_QUEUE_FULL = "Mail queue is full, please retry later".getBytes(StandardCharsets.UTF_8);
+
+        private final TRWhiteList plugin;
+
+        public SendCodeHandler(TRWhiteList plugin) {
+            this.plugin = plugin;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (WebServerExecutor.isShedding()) {
+                sendResponse(exchange, 503, "text/plain; charset=UTF-8", "Server busy, please retry".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            
+            if (!plugin.registryReady) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                sendResponse(exchange, 503, "text/plain; charset=UTF-8", WebHandler.STARTING);
+                return;
+            }
+            
+            try {
+                RuntimeSettings settings = plugin.settings;
+                VerificationCodes codes = settings.verificationCodes;
+                MailQueue queue = settings.mailQueue;
+                if (codes == null || queue == null) {
+                    sendResponse(exchange, 404, "text/plain; charset=UTF-8", DISABLED);
+                    return;
+                }
+                
+                long retryAfter = settings.acquireIpRateLimit(exchange);
+                if (retryAfter > 0) {
+                    exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter));
+                    sendResponse(exchange, 429, "text/html; charset=UTF-8", settings.messageBytes("too_many_requests"));
+                    return;
+                }
+                
+                String email = queryParameter(exchange.getRequestURI().getRawQuery(), "email");
+                byte[] response;
+                int status = 200;
+                if (email == null || !isValidEmail(email)) {
+                    response = settings.messageBytes("invalid_email");
+                    status = 400;
+                } else if (!settings.isEmailSuffixAllowed(email)) {
+                    response = settings.messageBytes("email_suffix_not_allowed");
+                    status = 403;
+                } else if (plugin.registeredEmails.contains(email)) {
+                    response = settings.messageBytes("email_already_registered");
+                    status = 403;
+                } else if ((retryAfter = settings.acquireEmailRateLimit(email)) > 0) {
+                    exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter));
+                    response = settings.messageBytes("too_many_requests");
+                    status = 429;
+                } else {
+                    String normalized = EmailRegistry.normalize(email);
+                    String code = codes.issue(normalized);
+                    if (code == null) {
+                        // 冷却时间内重复发送
+                        exchange.getResponseHeaders().set("Retry-After", Long.toString(codes.cooldownRemaining(normalized)));
+                        response = settings.messageBytes("too_many_requests");
+                        status = 429;
+                    } else if (!queue.offer(settings.buildCodeMail(normalized, code))) {
+                        codes.revoke(normalized);
+                        exchange.getResponseHeaders().set("Retry-After", "5");
+                        response = MAIL_QUEUE_FULL;
+                        status = 503;
+                    } else {
+                        response = settings.messageBytes("code_sent");
+                    }
+                }
+                sendResponse(exchange, status, "text/html; charset=UTF-8", response);
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Send code request error", e);
+                sendResponse(exchange, 500, "text/plain; charset=UTF-8", "Internal server error".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        static String queryParameter(String rawQuery, String name) {
+            if (rawQuery == null) {
+                return null;
+            }
+            int start = 0;
+            while (start <= rawQuery.length()) {
+                int end = rawQuery.indexOf('&', start);
+                if (end < 0) {
+                    end = rawQuery.length();
+                }
+                int eq = rawQuery.indexOf('=', start);
+                if (eq - start == name.length() && eq < end && rawQuery.startsWith(name, start)) {
                     try {
-                        String key = java.net.URLDecoder.decode(entry[0], StandardCharsets.UTF_8);
-                        String value = java.net.URLDecoder.decode(entry[1], StandardCharsets.UTF_8);
-                        result.put(key, value);
-                    } catch (Exception ignored) {}
+                        return java.net.URLDecoder.decode(rawQuery.substring(eq + 1, end), StandardCharsets.UTF_8);
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
                 }
+                start = end + 1;
             }
-            return result;
+            return null;
+        }
+    }
+
+    // JSON 接口: POST /api/register 校验后立即返回 202 和请求编号,
+    // GET /api/status/{id}?wait=秒 返回主线程应用白名单后的真实结果, 可以长轮询
+    static class ApiHandler implements HttpHandler {
+        private static final String STATUS_PREFIX = "/api/status/";
+        private static final Pattern TAGS = Pattern.compile("<[^>]*>");
+
+        private final TRWhiteList plugin;
+
+        public ApiHandler(TRWhiteList plugin) {
+            this.plugin = plugin;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (WebServerExecutor.isShedding()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendJson(exchange, 503, Json.object("error", "overloaded", "message", "Server busy, please retry"));
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            try {
+                if (path.equals("/api/register")) {
+                    if (!"POST".equalsIgnoreCase(method)) {
+                        methodNotAllowed(exchange, "POST");
+                    } else {
+                        register(exchange);
+                    }
+                } else if (path.startsWith(STATUS_PREFIX) && path.length() > STATUS_PREFIX.length()) {
+                    if (!"GET".equalsIgnoreCase(method)) {
+                        methodNotAllowed(exchange, "GET");
+                    } else {
+                        status(exchange, path.substring(STATUS_PREFIX.length()));
+                    }
+                } else {
+                    sendJson(exchange, 404, Json.object("error", "not_found", "message", "Not found"));
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "API request error", e);
+                sendJson(exchange, 500, Json.object("error", "internal", "message", "Internal server error"));
+            }
+        }
+
+        private void register(HttpExchange exchange) throws IOException {
+            long started = System.nanoTime();
+            Metrics metrics = plugin.metrics;
+            RuntimeSettings settings = plugin.settings;
+            if (!plugin.registryReady) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                sendJson(exchange, 503, Json.object("error", "starting", "message", "Server is starting, please retry shortly"));
+                plugin.recordAttempt(exchange, settings, "api", null, Metrics.RequestOutcome.STARTING, started);
+                return;
+            }
+            long retryAfter = settings.acquireIpRateLimit(exchange);
+            if (retryAfter > 0) {
+                reject(exchange, settings, new Rejection(429, "too_many_requests", Metrics.RequestOutcome.RATE_LIMITED, retryAfter));
+                plugin.recordAttempt(exchange, settings, "api", null, Metrics.RequestOutcome.RATE_LIMITED, started);
+                return;
+            }
+
+            FormParser parser = settings.formParser;
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && WebHandler.parseLength(contentLength) > parser.getMaxBodyBytes()) {
+                sendJson(exchange, 413, Json.object("error", "too_large", "message", "Request too large"));
+                plugin.recordAttempt(exchange, settings, "api", null, Metrics.RequestOutcome.TOO_LARGE, started);
+                return;
+            }
+            FormParser.Form form;
+            long readStarted = System.nanoTime();
+            try {
+                form = WebHandler.parseFormData(exchange, parser);
+            } catch (FormParser.FormException e) {
+                boolean tooLarge = e.status == 413;
+                sendJson(exchange, e.status, Json.object("error", tooLarge ? "too_large" : "malformed", "message", e.getMessage()));
+                plugin.recordAttempt(exchange, settings, "api", null, tooLarge
+                        ? Metrics.RequestOutcome.TOO_LARGE : Metrics.RequestOutcome.MISSING_PARAMETERS, started);
+                return;
+            }
+            metrics.bodyRead.observeSince(readStarted);
+
+            Rejection rejection = plugin.checkRegistration(settings, form.username, form.email, form.code);
+            if (rejection != null) {
+                reject(exchange, settings, rejection);
+                plugin.recordAttempt(exchange, settings, "api", form, rejection.outcome, started);
+                return;
+            }
+            WhitelistQueue.Registration registration = plugin.addToWhitelist(form.username, form.email);
+            RegistrationTracker.Ticket ticket = plugin.registrations.track(registration);
+            String statusUrl = STATUS_PREFIX + ticket.id;
+            exchange.getResponseHeaders().set("Location", statusUrl);
+            sendJson(exchange, 202, Json.object("id", ticket.id, "status", "pending", "statusUrl", statusUrl));
+            plugin.recordAttempt(exchange, settings, "api", form, Metrics.RequestOutcome.SUCCESS, started);
+        }
+
+        private void status(HttpExchange exchange, String id) throws IOException {
+            RegistrationTracker.Ticket ticket = plugin.registrations.get(id);
+            if (ticket == null) {
+                sendJson(exchange, 404, Json.object("error", "not_found", "message", "Unknown or expired request id"));
+                return;
+            }
+            long wait = 0;
+            String waitParameter = SendCodeHandler.queryParameter(exchange.getRequestURI().getRawQuery(), "wait");
+            if (waitParameter != null) {
+                wait = Math.max(0, Math.min(plugin.maxStatusWaitSeconds, WebHandler.parseLength(waitParameter)));
+            }
+            // 未完成时挂起请求并立即归还网页线程, 完成或超时后由处理本请求的执行器响应
+            if (!ticket.isDone() && wait > 0
+                    && plugin.registrations.await(ticket, wait * 1000, exchange.getHttpContext().getServer().getExecutor(),
+                    done -> sendStatusQuietly(exchange, done))) {
+                return;
+            }
+            sendStatus(exchange, ticket);
+        }
+
+        private void sendStatusQuietly(HttpExchange exchange, RegistrationTracker.Ticket ticket) {
+            try {
+                sendStatus(exchange, ticket);
+            } catch (IOException e) {
+                // 客户端已断开
+                exchange.close();
+            }
+        }
+
+        private static void sendStatus(HttpExchange exchange, RegistrationTracker.Ticket ticket) throws IOException {
+            WhitelistQueue.Outcome outcome = ticket.outcome();
+            String username = ticket.registration.username;
+            if (outcome == null) {
+                sendJson(exchange, 200, Json.object("id", ticket.id, "username", username, "status", "pending"));
+            } else if (outcome == WhitelistQueue.Outcome.FAILED) {
+                Exception error = ticket.registration.error;
+                sendJson(exchange, 200, Json.object("id", ticket.id, "username", username, "status", "failed",
+                        "error", error != null ? String.valueOf(error.getMessage()) : "unknown"));
+            } else {
+                sendJson(exchange, 200, Json.object("id", ticket.id, "username", username,
+                        "status", outcome.name().toLowerCase(Locale.ROOT)));
+            }
+        }
+
+        private static void reject(HttpExchange exchange, RuntimeSettings settings, Rejection rejection) throws IOException {
+            if (rejection.retryAfter > 0) {
+                exchange.getResponseHeaders().set("Retry-After", Long.toString(rejection.retryAfter));
+            }
+            String error = rejection.messageKey != null ? rejection.messageKey : "missing_parameters";
+            String message = rejection.messageKey != null
+                    ? TAGS.matcher(new String(settings.messageBytes(rejection.messageKey), StandardCharsets.UTF_8)).replaceAll("")
+                    : "Missing parameters";
+            sendJson(exchange, rejection.status, Json.object("status", "rejected", "error", error, "message", message));
+        }
+
+        private static void methodNotAllowed(HttpExchange exchange, String allow) throws IOException {
+            exchange.getResponseHeaders().set("Allow", allow);
+            sendJson(exchange, 405, Json.object("error", "method_not_allowed", "message", "Method not allowed"));
+        }
+
+        private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            sendResponse(exchange, status, "application/json; charset=UTF-8", json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // 管理接口, 需要 admin.token: POST /admin/import 上传并导入, GET /admin/import 查看进度, GET /admin/export 下载
+    static class AdminHandler implements HttpHandler {
+        private final TRWhiteList plugin;
+
+        public AdminHandler(TRWhiteList plugin) {
+            this.plugin = plugin;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            RuntimeSettings settings = plugin.settings;
+            // 未配置 token 时不提供管理接口
+            if (settings.adminToken == null || settings.adminToken.isEmpty()) {
+                sendResponse(exchange, 404, "text/plain; charset=UTF-8", "Not found".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (!isAuthorized(exchange, settings.adminToken)) {
+                return;
+            }
+            if (WebServerExecutor.isShedding()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendResponse(exchange, 503, "text/plain; charset=UTF-8", "Server busy, please retry".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            try {
+                if (path.equals("/admin/import") && "POST".equalsIgnoreCase(method)) {
+                    importUpload(exchange, settings);
+                } else if (path.equals("/admin/import") && "GET".equalsIgnoreCase(method)) {
+                    BulkTransfer.ImportJob job = plugin.importJob;
+                    if (job == null) {
+                        sendJson(exchange, 404, Json.object("error", "not_found", "message", "No import has run"));
+                    } else {
+                        sendJson(exchange, 200, job.toJson());
+                    }
+                } else if (path.equals("/admin/export") && "GET".equalsIgnoreCase(method)) {
+                    export(exchange);
+                } else if (path.equals("/admin/import") || path.equals("/admin/export")) {
+                    exchange.getResponseHeaders().set("Allow", path.equals("/admin/import") ? "GET, POST" : "GET");
+                    sendJson(exchange, 405, Json.object("error", "method_not_allowed", "message", "Method not allowed"));
+                } else {
+                    sendJson(exchange, 404, Json.object("error", "not_found", "message", "Not found"));
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Admin request error", e);
+                sendJson(exchange, 500, Json.object("error", "internal", "message", "Internal server error"));
+            }
+        }
+
+        // 在请求线程上边读边导入, 在途条目达到上限时停止读取; 读完后返回进度, 剩余条目继续按 tick 应用
+        private void importUpload(HttpExchange exchange, RuntimeSettings settings) throws IOException {
+            if (!plugin.registryReady) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                sendJson(exchange, 503, Json.object("error", "starting", "message", "Server is starting, please retry shortly"));
+                return;
+            }
+            String query = exchange.getRequestURI().getRawQuery();
+            BulkTransfer.Format format = BulkTransfer.Format.of(SendCodeHandler.queryParameter(query, "format"));
+            if (format == null) {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                format = contentType != null && contentType.toLowerCase(Locale.ROOT).contains("json")
+                        ? BulkTransfer.Format.JSONL : BulkTransfer.Format.CSV;
+            }
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && WebHandler.parseLength(contentLength) > settings.importMaxBytes) {
+                sendJson(exchange, 413, Json.object("error", "too_large", "message", "Import too large"));
+                return;
+            }
+            BulkTransfer.ImportJob job = plugin.startImport("upload from " + settings.clientAddress(exchange), format);
+            if (job == null) {
+                sendJson(exchange, 409, plugin.importJob.toJson());
+                return;
+            }
+            try (Reader reader = new BufferedReader(new InputStreamReader(
+                    new LimitedInputStream(exchange.getRequestBody(), settings.importMaxBytes), StandardCharsets.UTF_8))) {
+                job.run(reader, plugin::submitImported);
+            }
+            sendJson(exchange, job.isDone() ? 200 : 202, job.toJson());
+        }
+
+        // 分块传输, 不预先计算长度
+        private void export(HttpExchange exchange) throws IOException {
+            if (!plugin.registryReady) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                sendJson(exchange, 503, Json.object("error", "starting", "message", "Server is starting, please retry shortly"));
+                return;
+            }
+            BulkTransfer.Format format = BulkTransfer.Format.of(
+                    SendCodeHandler.queryParameter(exchange.getRequestURI().getRawQuery(), "format"));
+            if (format == null) {
+                format = BulkTransfer.Format.CSV;
+            }
+            exchange.getResponseHeaders().set("Content-Type", format.contentType);
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"emails." + format.extension + "\"");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                BulkTransfer.export(plugin.emailStorage, format, writer);
+            }
+        }
+
+        private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            sendResponse(exchange, status, "application/json; charset=UTF-8", json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // 超过上限时抛出异常, 导入任务以错误结束
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consume(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                consume(n);
+            }
+            return n;
+        }
+
+        private void consume(int n) throws IOException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new IOException("Import larger than admin.import-max-body-mb");
+            }
+        }
+    }
+
+    // 校验 Authorization: Bearer <token>, 不匹配时已经返回 401
+    static boolean isAuthorized(HttpExchange exchange, String token) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        String expected = "Bearer " + token;
+        if (header == null || !MessageDigest.isEqual(header.getBytes(StandardCharsets.UTF_8),
+                expected.getBytes(StandardCharsets.UTF_8))) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            sendResponse(exchange, 401, "text/plain; charset=UTF-8", "Unauthorized".getBytes(StandardCharsets.UTF_8));
+            return false;
+        }
+        return true;
+    }
+
+    // Prometheus 文本格式的指标, 配置了 token 时需要 Authorization: Bearer <token>
+    static class MetricsHandler implements HttpHandler {
+        private final TRWhiteList plugin;
+
+        public MetricsHandler(TRWhiteList plugin) {
+            this.plugin = plugin;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String token = plugin.settings.metricsToken;
+            if (token != null && !token.isEmpty() && !isAuthorized(exchange, token)) {
+                return;
+            }
+            // 过载时不再占用线程渲染指标, 抓取端下次再来
+            if (WebServerExecutor.isShedding()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendResponse(exchange, 503, "text/plain; charset=UTF-8", "Server busy, please retry".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendResponse(exchange, 405, "text/plain; charset=UTF-8", "Method not allowed".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            sendResponse(exchange, 200, "text/plain; version=0.0.4; charset=UTF-8",
+                    plugin.metrics.render().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static void sendResponse(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
         }
     }
 }
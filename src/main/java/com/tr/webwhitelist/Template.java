@@ -0,0 +1,122 @@
+package com.tr.webwhitelist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// 预编译模板: 加载时把文本拆成字面量片段和占位符, 渲染时只做一次拼接
+final class Template {
+    private final String open;
+    private final String close;
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+
+    private Template(String open, String close, String[] literals, String[] slots) {
+        this.open = open;
+        this.close = close;
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    // 页面模板使用 ${key}
+    static Template page(String source) {
+        return compile(source, "${", "}");
+    }
+
+    // 消息模板使用 {key}
+    static Template message(String source) {
+        return compile(source, "{", "}");
+    }
+
+    static Template compile(String source, String open, String close) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        String text = source == null ? "" : source;
+
+        int start = 0;
+        int cursor = 0;
+        while (true) {
+            int begin = text.indexOf(open, cursor);
+            if (begin < 0) {
+                break;
+            }
+            int end = text.indexOf(close, begin + open.length());
+            if (end < 0) {
+                break;
+            }
+            String name = text.substring(begin + open.length(), end);
+            if (!isSlotName(name)) {
+                // 不是占位符 (例如页面里的 JS 模板字符串), 按原样保留
+                cursor = begin + open.length();
+                continue;
+            }
+            literals.add(text.substring(start, begin));
+            slots.add(name);
+            start = end + close.length();
+            cursor = start;
+        }
+        literals.add(text.substring(start));
+
+        return new Template(open, close, literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+
+    private static boolean isSlotName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean hasSlots() {
+        return slots.length > 0;
+    }
+
+    // 渲染模板, 没有对应值的占位符原样输出
+    String render(Map<String, String> values) {
+        if (slots.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(literalLength + slots.length * 16);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]);
+            String value = values.get(slots[i]);
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append(open).append(slots[i]).append(close);
+            }
+        }
+        builder.append(literals[slots.length]);
+        return builder.toString();
+    }
+
+    // 只替换一个占位符的快捷方式
+    String render(String key, String value) {
+        if (slots.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(literalLength + value.length() * slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]);
+            if (slots[i].equals(key)) {
+                builder.append(value);
+            } else {
+                builder.append(open).append(slots[i]).append(close);
+            }
+        }
+        builder.append(literals[slots.length]);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.tr.webwhitelist;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 按邮箱发放的一次性验证码, 过期自动淘汰, 限制尝试次数和总数量
+final class VerificationCodes {
+    private final SecureRandom random = new SecureRandom();
+    private final ExpiringCache<String, Code> codes;
+    private final int length;
+    private final int maxAttempts;
+    private final long cooldownNanos;
+
+    VerificationCodes(int length, long ttlSeconds, int maxAttempts, long cooldownSeconds, int maxEntries) {
+        this.codes = new ExpiringCache<>(maxEntries, ttlSeconds, TimeUnit.SECONDS);
+        this.length = Math.max(4, Math.min(length, 12));
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.cooldownNanos = TimeUnit.SECONDS.toNanos(Math.max(0, cooldownSeconds));
+    }
+
+    // 生成新验证码; 冷却时间内重复请求返回 null
+    String issue(String normalizedEmail) {
+        Code existing = codes.get(normalizedEmail);
+        long now = System.nanoTime();
+        if (existing != null && now - existing.issuedAt < cooldownNanos) {
+            return null;
+        }
+        Code code = new Code(generate(), now);
+        codes.put(normalizedEmail, code);
+        return code.value;
+    }
+
+    // 冷却还剩多少秒
+    long cooldownRemaining(String normalizedEmail) {
+        Code existing = codes.get(normalizedEmail);
+        if (existing == null) {
+            return 0;
+        }
+        long remaining = cooldownNanos - (System.nanoTime() - existing.issuedAt);
+        return remaining > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining)) : 0;
+    }
+
+    // 校验成功后验证码立即失效, 超过尝试次数也会失效
+    boolean verify(String normalizedEmail, String value) {
+        Code code = codes.get(normalizedEmail);
+        if (code == null) {
+            return false;
+        }
+        if (code.attempts.incrementAndGet() > maxAttempts) {
+            codes.remove(normalizedEmail);
+            return false;
+        }
+        if (!MessageDigest.isEqual(code.value.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8))) {
+            return false;
+        }
+        // 并发校验时只有移除成功的一方算通过
+        return codes.remove(normalizedEmail) == code;
+    }
+
+    // 发送失败时撤回, 让用户可以立即重试
+    void revoke(String normalizedEmail) {
+        codes.remove(normalizedEmail);
+    }
+
+    int size() {
+        return codes.size();
+    }
+
+    private String generate() {
+        char[] digits = new char[length];
+        for (int i = 0; i < length; i++) {
+            digits[i] = (char) ('0' + random.nextInt(10));
+        }
+        return new String(digits);
+    }
+
+    private static final class Code {
+        final String value;
+        final long issuedAt;
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Code(String value, long issuedAt) {
+            this.value = value;
+            this.issuedAt = issuedAt;
+        }
+    }
+}
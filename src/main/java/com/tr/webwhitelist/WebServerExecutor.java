@@ -0,0 +1,140 @@
+package com.tr.webwhitelist;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// 网页服务器的请求执行器: 有界线程池或虚拟线程, 满载时直接返回 503
+final class WebServerExecutor implements Executor {
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    private final Logger logger;
+    private final String mode;
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong(System.nanoTime() - REPORT_INTERVAL_NANOS);
+
+    private WebServerExecutor(Logger logger, String mode, ExecutorService delegate, Semaphore permits) {
+        this.logger = logger;
+        this.mode = mode;
+        this.delegate = delegate;
+        this.permits = permits;
+    }
+
+    static WebServerExecutor create(ConfigurationSection section, Logger logger) {
+        String mode = section != null ? section.getString("executor", "pool") : "pool";
+        int threads = Math.max(1, section != null ? section.getInt("threads", 8) : 8);
+        int queueSize = Math.max(1, section != null ? section.getInt("queue-size", 100) : 100);
+
+        if ("virtual".equalsIgnoreCase(mode)) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                int maxConcurrent = Math.max(1, section.getInt("virtual-max-concurrent", 1000));
+                return new WebServerExecutor(logger, "virtual", virtual, new Semaphore(maxConcurrent));
+            }
+            logger.warning("Virtual threads require Java 21+, falling back to thread pool");
+        } else if (!"pool".equalsIgnoreCase(mode)) {
+            logger.warning("Unknown web-server.executor '" + mode + "', using thread pool");
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory("TRWhiteList-Web"));
+        pool.allowCoreThreadTimeOut(true);
+        return new WebServerExecutor(logger, "pool(" + threads + ", queue " + queueSize + ")", pool, null);
+    }
+
+    // 通过反射创建虚拟线程执行器, 旧版 JVM 返回 null
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 当前线程是否正在处理被拒绝的请求
+    static boolean isShedding() {
+        return SHEDDING.get() != null;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (permits == null) {
+            try {
+                delegate.execute(task);
+            } catch (RejectedExecutionException e) {
+                shed(task);
+            }
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            shed(task);
+            return;
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            shed(task);
+        }
+    }
+
+    // 在调度线程上运行请求, 处理器看到标记后只返回 503
+    private void shed(Runnable task) {
+        long count = rejected.incrementAndGet();
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if (now - last >= REPORT_INTERVAL_NANOS && lastReport.compareAndSet(last, now)) {
+            logger.warning("Web server saturated, " + count + " requests rejected so far");
+        }
+
+        SHEDDING.set(Boolean.TRUE);
+        try {
+            task.run();
+        } finally {
+            SHEDDING.remove();
+        }
+    }
+
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    String getMode() {
+        return mode;
+    }
+
+    void shutdown(long timeoutMillis) {
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                delegate.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            delegate.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        long count = rejected.get();
+        if (count > 0) {
+            logger.info("Web executor stopped, " + count + " requests were rejected while saturated");
+        }
+    }
+}
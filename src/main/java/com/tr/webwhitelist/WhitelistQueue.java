@@ -0,0 +1,199 @@
+package com.tr.webwhitelist;
+
+import org.bukkit.OfflinePlayer;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 白名单添加队列: 后台线程解析玩家档案, 主线程每 tick 按预算批量应用
+final class WhitelistQueue {
+    enum Outcome {
+        ADDED,
+        ALREADY_WHITELISTED,
+        FAILED
+    }
+
+    // 应用结果回调, 在主线程调用
+    interface Listener {
+        void onComplete(Registration registration, Outcome outcome, Exception error);
+    }
+
+    static final class Registration {
+        final String username;
+        final String email;
+        // 批量导入: 已在白名单中的玩家也记录邮箱, 不逐条输出日志
+        final boolean imported;
+        final long submittedNanos = System.nanoTime();
+        // 在主线程应用并通知监听器之后完成, 失败原因见 error
+        final CompletableFuture<Outcome> result = new CompletableFuture<>();
+        volatile OfflinePlayer player;
+        volatile Exception error;
+
+        Registration(String username, String email) {
+            this(username, email, false);
+        }
+
+        Registration(String username, String email, boolean imported) {
+            this.username = username;
+            this.email = email;
+            this.imported = imported;
+        }
+    }
+
+    private final Logger logger;
+    private final ProfileResolver resolver;
+    private final ExpiringCache<String, OfflinePlayer> profiles;
+    private final ExecutorService resolverPool;
+    private final Listener listener;
+    private final Metrics metrics;
+    private final int maxPerTick;
+    private final long maxNanosPerTick;
+    private final Queue<Registration> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private volatile long lastBatchNanos;
+    private volatile int lastBatchSize;
+
+    WhitelistQueue(Logger logger, ProfileResolver resolver, ExpiringCache<String, OfflinePlayer> profiles,
+                   int resolverThreads, int maxPerTick, long maxMillisPerTick, Listener listener, Metrics metrics) {
+        this.logger = logger;
+        this.resolver = resolver;
+        this.profiles = profiles;
+        this.resolverPool = Executors.newFixedThreadPool(Math.max(1, resolverThreads),
+                new NamedThreadFactory("TRWhiteList-Profile"));
+        this.maxPerTick = Math.max(1, maxPerTick);
+        // 0 表示不限时间
+        this.maxNanosPerTick = maxMillisPerTick > 0 ? TimeUnit.MILLISECONDS.toNanos(maxMillisPerTick) : Long.MAX_VALUE;
+        this.listener = listener;
+        this.metrics = metrics;
+    }
+
+    // 任意线程调用: 排队并在后台解析玩家档案
+    void submit(Registration registration) {
+        depth.incrementAndGet();
+        try {
+            resolverPool.execute(() -> {
+                try {
+                    registration.player = resolve(registration.username);
+                } catch (Exception e) {
+                    registration.error = e;
+                }
+                ready.add(registration);
+            });
+        } catch (RejectedExecutionException e) {
+            // 插件正在关闭
+            registration.error = e;
+            ready.add(registration);
+        }
+    }
+
+    private OfflinePlayer resolve(String username) throws Exception {
+        String key = username.toLowerCase(Locale.ROOT);
+        OfflinePlayer player = profiles.get(key);
+        if (player == null) {
+            long start = System.nanoTime();
+            player = resolver.resolve(username);
+            metrics.profileLookup.observeSince(start);
+            if (player != null) {
+                profiles.put(key, player);
+            }
+        }
+        return player;
+    }
+
+    // 主线程每 tick 调用, 最多应用 maxPerTick 个且不超过时间预算, 返回本次应用的数量
+    int drain() {
+        return drain(maxPerTick, maxNanosPerTick);
+    }
+
+    int drain(int budget, long nanosBudget) {
+        if (ready.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int applied = 0;
+        Registration registration;
+        // 至少应用一个, 单个条目超时也能继续前进
+        while (applied < budget && (applied == 0 || System.nanoTime() - start < nanosBudget)
+                && (registration = ready.poll()) != null) {
+            apply(registration);
+            applied++;
+        }
+        depth.addAndGet(-applied);
+
+        lastBatchNanos = System.nanoTime() - start;
+        lastBatchSize = applied;
+        metrics.whitelistBatch.observe(lastBatchNanos);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Applied " + applied + " whitelist entries in " + getLastBatchMillis()
+                    + " ms, queue depth " + depth.get());
+        }
+        return applied;
+    }
+
+    private void apply(Registration registration) {
+        metrics.queueDelay.observeSince(registration.submittedNanos);
+        Outcome outcome;
+        Exception error = registration.error;
+        OfflinePlayer player = registration.player;
+        if (error != null || player == null) {
+            outcome = Outcome.FAILED;
+            if (error == null) {
+                error = new IllegalStateException("Could not resolve profile for " + registration.username);
+            }
+        } else {
+            try {
+                if (player.isWhitelisted()) {
+                    outcome = Outcome.ALREADY_WHITELISTED;
+                } else {
+                    player.setWhitelisted(true);
+                    outcome = Outcome.ADDED;
+                }
+            } catch (Exception e) {
+                outcome = Outcome.FAILED;
+                error = e;
+            }
+        }
+
+        metrics.recordWhitelist(outcome);
+        try {
+            listener.onComplete(registration, outcome, error);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Whitelist listener failed for " + registration.username, e);
+        }
+        registration.error = error;
+        registration.result.complete(outcome);
+    }
+
+    // 等待后台解析结束并应用所有剩余条目, 关闭时在主线程调用
+    void shutdown(long timeoutMillis) {
+        resolverPool.shutdown();
+        try {
+            resolverPool.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain(Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    // 已提交但尚未应用的数量
+    int getQueueDepth() {
+        return depth.get();
+    }
+
+    double getLastBatchMillis() {
+        return lastBatchNanos / 1_000_000.0;
+    }
+
+    int getLastBatchSize() {
+        return lastBatchSize;
+    }
+}
@@ -0,0 +1,126 @@
+package com.tr.webwhitelist;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// emails.yml 存储, 每次注册都会重写整个文件
+final class YamlEmailStorage implements EmailStorage {
+    // 邮箱里有 '.', 不能用默认的路径分隔符
+    private static final char PATH_SEPARATOR = '/';
+    private static final String SECTION = "registered";
+
+    private final File file;
+    private final Logger logger;
+    private final Metrics.Histogram flushTimes;
+    private YamlConfiguration config;
+
+    YamlEmailStorage(File file, Logger logger, Metrics.Histogram flushTimes) {
+        this.file = file;
+        this.logger = logger;
+        this.flushTimes = flushTimes;
+        this.config = newConfiguration();
+    }
+
+    private static YamlConfiguration newConfiguration() {
+        YamlConfiguration configuration = new YamlConfiguration();
+        configuration.options().pathSeparator(PATH_SEPARATOR);
+        return configuration;
+    }
+
+    // 加载时持有锁, 回调在锁外进行, 慢的调用方 (例如导出) 不会挡住主线程的 append
+    @Override
+    public void forEach(BiConsumer<String, String> consumer) throws IOException {
+        for (Map.Entry<String, String> entry : load().entrySet()) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private synchronized Map<String, String> load() throws IOException {
+        YamlConfiguration loaded = newConfiguration();
+        if (file.exists()) {
+            try {
+                loaded.load(file);
+            } catch (InvalidConfigurationException e) {
+                throw new IOException("Invalid " + file.getName(), e);
+            }
+        }
+
+        // 旧版本按 '.' 拆成了嵌套节点, 这里只取叶子节点并还原邮箱
+        Map<String, String> entries = new LinkedHashMap<>();
+        boolean nested = false;
+        ConfigurationSection section = loaded.getConfigurationSection(SECTION);
+        if (section != null) {
+            for (String key : section.getKeys(true)) {
+                if (section.isConfigurationSection(key)) {
+                    continue;
+                }
+                if (key.indexOf(PATH_SEPARATOR) >= 0) {
+                    nested = true;
+                }
+                Object value = section.get(key);
+                String email = key.replace(PATH_SEPARATOR, '.').toLowerCase(Locale.ROOT);
+                entries.put(email, value instanceof String ? (String) value : "");
+            }
+        }
+
+        // 下次保存时改写成扁平结构
+        if (nested) {
+            loaded.set(SECTION, null);
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                loaded.set(path(entry.getKey()), value(entry.getValue()));
+            }
+        }
+        config = loaded;
+        return entries;
+    }
+
+    @Override
+    public synchronized void append(String email, String username) {
+        config.set(path(email), value(username));
+        save();
+    }
+
+    @Override
+    public synchronized void clear() {
+        config.set(SECTION, null);
+        save();
+    }
+
+    @Override
+    public synchronized void flush() {
+        save();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private static String path(String email) {
+        return SECTION + PATH_SEPARATOR + email;
+    }
+
+    private static Object value(String username) {
+        return username == null || username.isEmpty() ? Boolean.TRUE : username;
+    }
+
+    private void save() {
+        long start = System.nanoTime();
+        try {
+            config.save(file);
+            flushTimes.observeSince(start);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not save " + file.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.tr.webwhitelist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuditLogTest {
+    private static final Logger LOGGER = Logger.getLogger(AuditLogTest.class.getName());
+
+    private File folder;
+
+    @Before
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("audit").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    // 每次启动写一个新的 gzip 文件, 每个文件单独可以完整解压
+    @Test
+    public void opensNewFilePerStart() throws IOException {
+        for (int start = 0; start < 3; start++) {
+            AuditLog log = new AuditLog(folder, 1024, true, 0, "", LOGGER);
+            for (int i = 0; i < 100; i++) {
+                log.record("register", "127.0.0.1", "Steve", "steve@qq.com", "success", 1_000_000);
+            }
+            log.close();
+            assertEquals(100, log.getWritten());
+            assertEquals(0, log.getDropped());
+        }
+
+        String today = todayPrefix();
+        String[] names = folder.list();
+        Arrays.sort(names);
+        assertEquals(Arrays.asList(today + ".0.jsonl.gz", today + ".1.jsonl.gz", today + ".2.jsonl.gz"),
+                Arrays.asList(names));
+        for (String name : names) {
+            List<String> lines = readLines(new File(folder, name));
+            assertEquals(100, lines.size());
+            assertTrue(lines.get(0), lines.get(0).startsWith("{\"ts\":\""));
+            assertTrue(lines.get(0), lines.get(0).contains("\"username\":\"Steve\""));
+            assertFalse(lines.get(0), lines.get(0).contains("steve@qq.com"));
+        }
+    }
+
+    // 截断的文件 (崩溃时未写完) 不影响下次启动写的文件
+    @Test
+    public void truncatedFileDoesNotAffectNextStart() throws IOException {
+        AuditLog log = new AuditLog(folder, 1024, true, 0, "", LOGGER);
+        log.record("register", "127.0.0.1", "Steve", "steve@qq.com", "success", 0);
+        log.close();
+        File first = new File(folder, todayPrefix() + ".0.jsonl.gz");
+        byte[] bytes = Files.readAllBytes(first.toPath());
+        Files.write(first.toPath(), Arrays.copyOf(bytes, bytes.length - 6));
+
+        log = new AuditLog(folder, 1024, true, 0, "", LOGGER);
+        log.record("register", "127.0.0.1", "Alex", "alex@qq.com", "success", 0);
+        log.close();
+        List<String> lines = readLines(new File(folder, todayPrefix() + ".1.jsonl.gz"));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("\"username\":\"Alex\""));
+    }
+
+    @Test
+    public void deletesFilesOlderThanRetention() throws IOException {
+        LocalDate today = LocalDate.now();
+        String[] old = {"audit-" + today.minusDays(10) + ".0.jsonl.gz", "audit-" + today.minusDays(8) + ".jsonl"};
+        String[] kept = {"audit-" + today.minusDays(7) + ".3.jsonl", "audit-" + today.minusDays(1) + ".0.jsonl.gz",
+                "audit-notes.txt"};
+        for (String name : old) {
+            assertTrue(new File(folder, name).createNewFile());
+        }
+        for (String name : kept) {
+            assertTrue(new File(folder, name).createNewFile());
+        }
+
+        AuditLog log = new AuditLog(folder, 1024, false, 7, "", LOGGER);
+        log.record("register", null, "", "", "success", 0);
+        log.close();
+
+        for (String name : old) {
+            assertFalse(name, new File(folder, name).exists());
+        }
+        for (String name : kept) {
+            assertTrue(name, new File(folder, name).exists());
+        }
+        assertTrue(new File(folder, todayPrefix() + ".0.jsonl").exists());
+    }
+
+    private static String todayPrefix() {
+        return "audit-" + LocalDate.now();
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = file.getName().endsWith(".gz")
+                ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,166 @@
+package com.tr.webwhitelist;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkTransferTest {
+    @Test
+    public void importsCsvWithHeaderAndSkipsInvalidRows() throws Exception {
+        String csv = "email,username\r\n"
+                + "steve@qq.com,Steve\n"
+                + "\"alex@qq.com\",\"Alex\"\n"
+                + "STEVE@qq.com,Steve2\n"
+                + "not-an-email,Bob\n"
+                + "bad@qq.com,x\n"
+                + "\"unterminated,Bob\n"
+                + "\n";
+        Set<String> seen = new HashSet<>();
+        BulkTransfer.ImportJob job = new BulkTransfer.ImportJob("test.csv", BulkTransfer.Format.CSV, 4);
+        job.run(new StringReader(csv), (username, email) -> {
+            if (!seen.add(EmailRegistry.normalize(email))) {
+                return null;
+            }
+            WhitelistQueue.Registration registration = new WhitelistQueue.Registration(username, email, true);
+            registration.result.complete(WhitelistQueue.Outcome.ADDED);
+            return registration;
+        });
+
+        assertTrue(job.isDone());
+        String json = job.toJson();
+        assertTrue(json, json.contains("\"state\":\"finished\""));
+        assertTrue(json, json.contains("\"read\":6"));
+        assertTrue(json, json.contains("\"added\":2"));
+        assertTrue(json, json.contains("\"duplicates\":1"));
+        assertTrue(json, json.contains("\"invalid\":3"));
+    }
+
+    // 条目一直没有被应用时, 取消后读取线程不能卡在等待名额上
+    @Test
+    public void cancelStopsReaderWaitingForInFlightEntries() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            csv.append("player").append(i).append(",p").append(i).append("@qq.com\n");
+        }
+        AtomicInteger submitted = new AtomicInteger();
+        BulkTransfer.ImportJob job = new BulkTransfer.ImportJob("stuck.csv", BulkTransfer.Format.CSV, 2);
+        Thread reader = new Thread(() -> job.run(new StringReader(csv.toString()), (username, email) -> {
+            submitted.incrementAndGet();
+            return new WhitelistQueue.Registration(username, email, true);
+        }));
+        reader.start();
+        Thread.sleep(200);
+        assertEquals(2, submitted.get());
+        assertFalse(job.isDone());
+
+        job.cancel("Plugin disabled");
+        assertTrue(job.isDone());
+        reader.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(reader.isAlive());
+        assertEquals(2, submitted.get());
+        String json = job.toJson();
+        assertTrue(json, json.contains("\"state\":\"failed\""));
+        assertTrue(json, json.contains("\"error\":\"Plugin disabled\""));
+    }
+
+    @Test
+    public void exportsCsvAndJsonLines() throws Exception {
+        EmailStorage storage = new EmailStorage() {
+            @Override
+            public void forEach(BiConsumer<String, String> consumer) {
+                consumer.accept("steve@qq.com", "Steve");
+                consumer.accept("a,\"b\"@qq.com", "");
+            }
+
+            @Override
+            public void append(String email, String username) {
+            }
+
+            @Override
+            public void clear() {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        StringWriter csv = new StringWriter();
+        assertEquals(2, BulkTransfer.export(storage, BulkTransfer.Format.CSV, csv));
+        assertEquals("username,email\nSteve,steve@qq.com\n,\"a,\"\"b\"\"@qq.com\"\n", csv.toString());
+
+        StringWriter jsonl = new StringWriter();
+        BulkTransfer.export(storage, BulkTransfer.Format.JSONL, jsonl);
+        assertEquals("{\"username\":\"Steve\",\"email\":\"steve@qq.com\"}\n"
+                + "{\"username\":\"\",\"email\":\"a,\\\"b\\\"@qq.com\"}\n", jsonl.toString());
+    }
+
+    // 写出到客户端时存储已经读完, 不再持有它的锁
+    @Test
+    public void exportDoesNotWriteWhileStorageIsRead() throws Exception {
+        AtomicBoolean reading = new AtomicBoolean();
+        EmailStorage storage = new EmailStorage() {
+            @Override
+            public void forEach(BiConsumer<String, String> consumer) {
+                reading.set(true);
+                for (int i = 0; i < 10000; i++) {
+                    consumer.accept("p" + i + "@qq.com", "Player" + i);
+                }
+                reading.set(false);
+            }
+
+            @Override
+            public void append(String email, String username) {
+            }
+
+            @Override
+            public void clear() {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        StringWriter client = new StringWriter() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                if (reading.get()) {
+                    throw new IllegalStateException("wrote to the client while the storage was being read");
+                }
+                super.write(buffer, offset, length);
+            }
+
+            @Override
+            public void write(String text) {
+                write(text.toCharArray(), 0, text.length());
+            }
+
+            @Override
+            public void write(int c) {
+                write(new char[] {(char) c}, 0, 1);
+            }
+        };
+        assertEquals(10000, BulkTransfer.export(storage, BulkTransfer.Format.CSV, client));
+        String[] lines = client.toString().split("\n");
+        assertEquals(10001, lines.length);
+        assertEquals("Player9999,p9999@qq.com", lines[10000]);
+    }
+}
@@ -0,0 +1,139 @@
+package com.tr.webwhitelist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 本机回环上的 SMTP 替身: 逐条应答命令, 记录收到的邮件; 可以让前几封邮件失败或在邮件后断开连接
+final class FakeSmtpServer implements AutoCloseable {
+    private final ServerSocket server;
+    private final Thread acceptor;
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+    private final List<Long> deliveredAt = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger mailCommands = new AtomicInteger();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile boolean closeAfterMessage;
+
+    FakeSmtpServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::acceptLoop, "FakeSmtpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    List<String> messages() {
+        return messages;
+    }
+
+    List<Long> deliveredAt() {
+        return deliveredAt;
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    int mailCommands() {
+        return mailCommands.get();
+    }
+
+    // 接下来的 n 个 MAIL FROM 回答 451
+    void failNextMails(int n) {
+        failuresLeft.set(n);
+    }
+
+    // 每封邮件之后由服务器关闭连接, 模拟空闲超时
+    void closeAfterMessage(boolean close) {
+        closeAfterMessage = close;
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.incrementAndGet();
+                Thread session = new Thread(() -> serve(socket), "FakeSmtpServer-Session");
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII))) {
+            OutputStream out = s.getOutputStream();
+            reply(out, "220 fake ESMTP");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (command) {
+                    case "EHLO":
+                        reply(out, "250-fake\r\n250 OK");
+                        break;
+                    case "MAIL":
+                        mailCommands.incrementAndGet();
+                        if (failuresLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                            reply(out, "451 try again later");
+                        } else {
+                            reply(out, "250 OK");
+                        }
+                        break;
+                    case "RCPT":
+                        reply(out, "250 OK");
+                        break;
+                    case "DATA":
+                        reply(out, "354 go ahead");
+                        StringBuilder message = new StringBuilder();
+                        String data;
+                        while ((data = in.readLine()) != null && !data.equals(".")) {
+                            message.append(data).append('\n');
+                        }
+                        messages.add(message.toString());
+                        deliveredAt.add(System.nanoTime());
+                        reply(out, "250 queued");
+                        if (closeAfterMessage) {
+                            return;
+                        }
+                        break;
+                    case "QUIT":
+                        reply(out, "221 bye");
+                        return;
+                    default:
+                        reply(out, "502 not implemented");
+                        break;
+                }
+            }
+        } catch (SocketException ignored) {
+            // 客户端断开
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void reply(OutputStream out, String text) throws IOException {
+        out.write((text + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,210 @@
+package com.tr.webwhitelist;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FormParserTest {
+    private static final String URL_ENCODED = "application/x-www-form-urlencoded";
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private final FormParser parser = new FormParser(4096, 320);
+
+    @Test
+    public void parsesUrlEncodedFields() throws IOException {
+        FormParser.Form form = parse(parser, URL_ENCODED, "username=Steve_01&email=steve%40qq.com&code=123456");
+        assertEquals("Steve_01", form.username);
+        assertEquals("steve@qq.com", form.email);
+        assertEquals("123456", form.code);
+    }
+
+    @Test
+    public void keepsEqualsSignsInsideValues() throws IOException {
+        FormParser.Form form = parse(parser, URL_ENCODED, "username=a=b=&email=x%3Dy@qq.com&code==");
+        assertEquals("a=b=", form.username);
+        assertEquals("x=y@qq.com", form.email);
+        assertEquals("=", form.code);
+    }
+
+    @Test
+    public void skipsUnknownAndOverlongKeys() throws IOException {
+        FormParser.Form form = parse(parser, URL_ENCODED,
+                "csrf=%ZZ&usernameusernameusername=x&=y&&email&username=ok");
+        assertEquals("ok", form.username);
+        // 没有 '=' 的键不赋值
+        assertEquals("", form.email);
+    }
+
+    // 任意 Unicode 文本 (包括 & = + % 和补充平面字符) 编码后应原样解出
+    @Test
+    public void roundTripsUrlEncodedValues() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            String username = randomText(random, 40);
+            String email = randomText(random, 60);
+            String body = "username=" + URLEncoder.encode(username, "UTF-8")
+                    + "&email=" + URLEncoder.encode(email, "UTF-8");
+            FormParser.Form form = parse(parser, URL_ENCODED, body);
+            assertEquals(username, form.username);
+            assertEquals(email, form.email);
+
+            // 每次只读一个字节, 百分号转义会跨越读取边界
+            form = parser.parse(new OneByteInputStream(body.getBytes(StandardCharsets.US_ASCII)), URL_ENCODED);
+            assertEquals(username, form.username);
+            assertEquals(email, form.email);
+        }
+    }
+
+    @Test
+    public void rejectsMalformedEscapes() {
+        assertStatus(400, parser, URL_ENCODED, "username=%G1");
+        assertStatus(400, parser, URL_ENCODED, "username=%4");
+        assertStatus(400, parser, URL_ENCODED, "username=%4&email=a");
+        assertStatus(400, parser, URL_ENCODED, "user%4=name");
+    }
+
+    @Test
+    public void enforcesBodyAndFieldLimits() throws IOException {
+        FormParser small = new FormParser(128, 16);
+        assertEquals(16, parse(small, URL_ENCODED, "username=" + repeat('a', 16)).username.length());
+        assertStatus(413, small, URL_ENCODED, "username=" + repeat('a', 17));
+        // 解码后的长度计入字段限制
+        assertStatus(413, small, URL_ENCODED, "username=" + repeat("%E4%B8%AD", 6));
+        assertStatus(413, small, URL_ENCODED, "csrf=" + repeat('a', 200));
+        assertStatus(413, small, JSON, "{\"username\":\"" + repeat('a', 17) + "\"}");
+        assertStatus(413, small, JSON, "{\"code\":" + repeat('1', 17) + "}");
+        assertStatus(413, small, JSON, "{\"other\":\"" + repeat('a', 200) + "\"}");
+    }
+
+    // 线程复用的值缓冲区比当前解析器的限制大时, 仍按当前限制检查
+    @Test
+    public void reusedBufferKeepsPerParserLimit() throws IOException {
+        parse(new FormParser(4096, 1024), URL_ENCODED, "username=" + repeat('a', 1000));
+        FormParser small = new FormParser(4096, 16);
+        assertStatus(413, small, URL_ENCODED, "username=" + repeat('a', 17));
+        assertEquals("b", parse(small, URL_ENCODED, "username=b").username);
+    }
+
+    @Test
+    public void parsesJsonBodies() throws IOException {
+        FormParser.Form form = parse(parser, JSON, " {\"extra\":{\"a\":[1,true,null,{\"b\":\"}\"}]},"
+                + "\"username\":\"Al\\u0065x\",\"email\":\"a\\\"b@qq.com\",\"code\":123456} ");
+        assertEquals("Alex", form.username);
+        assertEquals("a\"b@qq.com", form.email);
+        assertEquals("123456", form.code);
+
+        form = parse(parser, "Application/JSON", "{}");
+        assertEquals("", form.username);
+    }
+
+    @Test
+    public void rejectsMalformedJson() {
+        assertStatus(400, parser, JSON, "");
+        assertStatus(400, parser, JSON, "[]");
+        assertStatus(400, parser, JSON, "{\"username\":\"a\"");
+        assertStatus(400, parser, JSON, "{\"username\":\"a\"} {}");
+        assertStatus(400, parser, JSON, "{\"username\":\"a\\x\"}");
+        assertStatus(400, parser, JSON, "{\"username\":\"a\nb\"}");
+        assertStatus(400, parser, JSON, "{\"username\" \"a\"}");
+        assertStatus(400, parser, JSON, "{\"x\":" + repeat('[', 40) + repeat(']', 40) + "}");
+    }
+
+    // 随机字节只能得到结果或 400/413, 不能抛出其他异常
+    @Test
+    public void randomBytesNeverEscapeAsOtherExceptions() {
+        Random random = new Random(7);
+        String[] alphabet = {"username", "email", "code", "=", "&", "%", "+", "{", "}", "[", "]", "\"", ":", ",",
+                "\\", "\\u", "1", "-", "true", "null", " "};
+        for (int i = 0; i < 20000; i++) {
+            byte[] body;
+            if (random.nextBoolean()) {
+                body = new byte[random.nextInt(300)];
+                random.nextBytes(body);
+            } else {
+                StringBuilder text = new StringBuilder();
+                int tokens = random.nextInt(40);
+                for (int t = 0; t < tokens; t++) {
+                    text.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+                body = text.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            for (String contentType : new String[] {URL_ENCODED, JSON}) {
+                try {
+                    parser.parse(new ByteArrayInputStream(body), contentType);
+                } catch (FormParser.FormException e) {
+                    assertTrue("status " + e.status, e.status == 400 || e.status == 413);
+                } catch (IOException | RuntimeException e) {
+                    throw new AssertionError("unexpected " + e + " for " + contentType, e);
+                }
+            }
+        }
+    }
+
+    private static FormParser.Form parse(FormParser parser, String contentType, String body) throws IOException {
+        return parser.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), contentType);
+    }
+
+    private static void assertStatus(int status, FormParser parser, String contentType, String body) {
+        try {
+            parse(parser, contentType, body);
+            fail("expected " + status + " for " + body);
+        } catch (FormParser.FormException e) {
+            assertEquals(body, status, e.status);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String randomText(Random random, int maxCodePoints) {
+        String specials = "&=+% ?#中文é";
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(maxCodePoints);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    text.append(specials.charAt(random.nextInt(specials.length())));
+                    break;
+                case 1:
+                    text.appendCodePoint(0x10000 + random.nextInt(0x1000));
+                    break;
+                default:
+                    text.append((char) (0x20 + random.nextInt(0x5f)));
+                    break;
+            }
+        }
+        return text.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        return repeat(String.valueOf(c), count);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    private static final class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(1, length));
+        }
+    }
+}
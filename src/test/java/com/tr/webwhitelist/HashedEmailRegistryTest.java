@@ -0,0 +1,49 @@
+package com.tr.webwhitelist;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedEmailRegistryTest {
+    private static final String[] EMAILS = {
+            "Steve@QQ.com", "  steve@qq.com\t", "İstanbul@example.com", "i̇stanbul@example.com",
+            "STRASSE@example.com", "ẞ@example.com", "ΣΣ@example.gr", "ÉMILE@example.fr",
+            "𐐀@example.com", "",
+    };
+
+    // 快速路径必须与 normalize 之后再求哈希一致, 否则同一邮箱可以注册两次
+    @Test
+    public void hashMatchesNormalizedEmail() {
+        for (String email : EMAILS) {
+            String normalized = EmailRegistry.normalize(email);
+            assertEquals(email, HashedEmailRegistry.hash(normalized), HashedEmailRegistry.hash(email));
+        }
+    }
+
+    @Test
+    public void treatsCaseVariantsAsSameEmail() {
+        HashedEmailRegistry registry = new HashedEmailRegistry();
+        assertTrue(registry.reserve("İstanbul@Example.com"));
+        assertTrue(registry.contains(EmailRegistry.normalize("İstanbul@example.com")));
+        assertFalse(registry.reserve(" İSTANBUL@EXAMPLE.COM "));
+        registry.release("İstanbul@example.com");
+        assertFalse(registry.contains("İstanbul@example.com"));
+    }
+
+    @Test
+    public void growsAndReleases() {
+        HashedEmailRegistry registry = new HashedEmailRegistry();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(registry.reserve("player" + i + "@example.com"));
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            registry.release("PLAYER" + i + "@example.com");
+        }
+        assertEquals(5000, registry.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 2 == 1, registry.contains("player" + i + "@example.com"));
+        }
+    }
+}
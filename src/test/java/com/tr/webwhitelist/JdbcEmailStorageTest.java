@@ -0,0 +1,201 @@
+package com.tr.webwhitelist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JdbcEmailStorageTest {
+    private static final Logger LOGGER = Logger.getLogger(JdbcEmailStorageTest.class.getName());
+
+    private String url;
+    private Connection keepAlive;
+    private final List<JdbcEmailStorage> opened = new ArrayList<>();
+    private final List<String> added = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+
+    // 每个测试一个内存数据库, 两个实例共用它模拟两台服务器
+    @Before
+    public void createDatabase() throws SQLException {
+        url = "jdbc:h2:mem:" + UUID.randomUUID();
+        keepAlive = DriverManager.getConnection(url);
+    }
+
+    @After
+    public void dropDatabase() throws SQLException {
+        for (JdbcEmailStorage storage : opened) {
+            storage.close();
+        }
+        keepAlive.close();
+    }
+
+    @Test
+    public void claimIsAtomicAcrossServers() throws IOException {
+        JdbcEmailStorage a = open();
+        JdbcEmailStorage b = open();
+        assertTrue(a.isEmpty());
+        assertTrue(a.claim("steve@qq.com", "Steve"));
+        // 另一台服务器再注册同一个邮箱得到"已注册", 而不是数据库错误
+        assertFalse(b.claim("steve@qq.com", "Alex"));
+        assertFalse(a.claim("steve@qq.com", "Steve"));
+        assertFalse(a.isEmpty());
+        assertEquals("Steve", read(b).get("steve@qq.com"));
+    }
+
+    @Test
+    public void databaseErrorIsNotReportedAsAlreadyRegistered() throws IOException, SQLException {
+        JdbcEmailStorage storage = open();
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.executeUpdate("DROP TABLE emails");
+        }
+        try {
+            storage.claim("steve@qq.com", "Steve");
+            fail("claim should fail without the table");
+        } catch (IOException expected) {
+            // 调用方回答 503, 不会告诉玩家邮箱已被注册
+        }
+    }
+
+    @Test
+    public void openFailsWithUnreachableDatabase() {
+        try {
+            new JdbcEmailStorage("jdbc:nosuchdb:x", null, "", "", "emails", 1, 1000, LOGGER, new Metrics.Histogram());
+            fail("open should fail");
+        } catch (IOException expected) {
+            // 没有驱动
+        }
+    }
+
+    @Test
+    public void unclaimReachesOtherServer() throws IOException {
+        JdbcEmailStorage a = open();
+        JdbcEmailStorage b = open();
+        a.claim("steve@qq.com", "Steve");
+        a.claim("alex@qq.com", "Alex");
+        read(b);
+
+        a.unclaim("steve@qq.com");
+        a.flush();
+        b.pull(added::add, removed::add);
+        assertEquals(Collections.singletonList("steve@qq.com"), removed);
+        assertTrue(added.isEmpty());
+        assertEquals(1, read(b).size());
+    }
+
+    // 撤销后又被重新注册的邮箱不从其他服务器的缓存中移除
+    @Test
+    public void reclaimedEmailIsNotRemoved() throws IOException {
+        JdbcEmailStorage a = open();
+        JdbcEmailStorage b = open();
+        a.claim("steve@qq.com", "Steve");
+        read(b);
+
+        a.unclaim("steve@qq.com");
+        a.flush();
+        assertTrue(a.claim("steve@qq.com", "Alex"));
+        b.pull(added::add, removed::add);
+        assertEquals(Collections.singletonList("steve@qq.com"), added);
+        assertTrue(removed.isEmpty());
+    }
+
+    @Test
+    public void clearRemovesEverythingOnOtherServer() throws IOException {
+        JdbcEmailStorage a = open();
+        JdbcEmailStorage b = open();
+        a.claim("steve@qq.com", "Steve");
+        a.claim("alex@qq.com", "Alex");
+        read(b);
+
+        a.clear();
+        a.flush();
+        assertTrue(a.isEmpty());
+        b.pull(added::add, removed::add);
+        assertEquals(2, removed.size());
+        assertTrue(removed.contains("steve@qq.com"));
+        assertTrue(removed.contains("alex@qq.com"));
+        // 清空后可以重新注册
+        assertTrue(b.claim("steve@qq.com", "Steve"));
+    }
+
+    // 每次只拉取上次读到的 id 之后的行
+    @Test
+    public void pullIsIncremental() throws IOException {
+        JdbcEmailStorage a = open();
+        JdbcEmailStorage b = open();
+        a.claim("steve@qq.com", "Steve");
+        read(b);
+
+        a.claim("alex@qq.com", "Alex");
+        b.pull(added::add, removed::add);
+        assertEquals(Collections.singletonList("alex@qq.com"), added);
+
+        added.clear();
+        b.pull(added::add, removed::add);
+        assertTrue(added.isEmpty());
+
+        a.claim("herobrine@qq.com", "Herobrine");
+        b.pull(added::add, removed::add);
+        assertEquals(Collections.singletonList("herobrine@qq.com"), added);
+        assertTrue(removed.isEmpty());
+    }
+
+    // 较小的 id 晚提交时, 下次拉取仍然能补上
+    @Test
+    public void pullPicksUpRowsCommittedOutOfOrder() throws IOException, SQLException {
+        JdbcEmailStorage b = open();
+        read(b);
+
+        insert(2, "alex@qq.com");
+        b.pull(added::add, removed::add);
+        assertEquals(Collections.singletonList("alex@qq.com"), added);
+
+        added.clear();
+        insert(1, "steve@qq.com");
+        b.pull(added::add, removed::add);
+        assertEquals(Collections.singletonList("steve@qq.com"), added);
+
+        added.clear();
+        b.pull(added::add, removed::add);
+        assertTrue(added.isEmpty());
+    }
+
+    private JdbcEmailStorage open() throws IOException {
+        JdbcEmailStorage storage = new JdbcEmailStorage(url, null, "", "", "emails", 2, 1000,
+                LOGGER, new Metrics.Histogram());
+        opened.add(storage);
+        return storage;
+    }
+
+    private void insert(long id, String email) throws SQLException {
+        try (PreparedStatement insert = keepAlive.prepareStatement(
+                "INSERT INTO emails (id, email, username, created_at) VALUES (?, ?, '', 0)")) {
+            insert.setLong(1, id);
+            insert.setString(2, email);
+            insert.executeUpdate();
+        }
+    }
+
+    private static Map<String, String> read(JdbcEmailStorage storage) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        storage.forEach(entries::put);
+        return entries;
+    }
+}
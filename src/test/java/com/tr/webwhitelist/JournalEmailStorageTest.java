@@ -0,0 +1,112 @@
+package com.tr.webwhitelist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+public class JournalEmailStorageTest {
+    private static final Logger LOGGER = Logger.getLogger(JournalEmailStorageTest.class.getName());
+
+    private File folder;
+    private File journal;
+
+    @Before
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("journal").toFile();
+        journal = new File(folder, "emails.journal");
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    // 崩溃时写了一半的记录在重新打开时截掉, 之后的记录不会接在它后面
+    @Test
+    public void dropsHalfWrittenRecordOnReopen() throws IOException {
+        JournalEmailStorage storage = open();
+        storage.append("steve@qq.com", "Steve");
+        storage.close();
+        String complete = new String(Files.readAllBytes(journal.toPath()), StandardCharsets.UTF_8);
+
+        for (String torn : new String[] {"alice@exa", "alice@example.com\tSte"}) {
+            Files.write(journal.toPath(), torn.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            storage = open();
+            assertEquals(complete, new String(Files.readAllBytes(journal.toPath()), StandardCharsets.UTF_8));
+            Map<String, String> entries = read(storage);
+            assertEquals(1, entries.size());
+            assertEquals("Steve", entries.get("steve@qq.com"));
+            storage.close();
+        }
+
+        storage = open();
+        storage.append("alex@qq.com", "Alex");
+        storage.close();
+        storage = open();
+        Map<String, String> entries = read(storage);
+        storage.close();
+        assertEquals(2, entries.size());
+        assertEquals("Alex", entries.get("alex@qq.com"));
+    }
+
+    @Test
+    public void skipsDamagedLines() throws IOException {
+        Files.write(journal.toPath(), ("steve@qq.com\tSteve\n"
+                + "no-tab@qq.com\n"
+                + "not-an-email\tBob\n"
+                + "bob@qq.com\tx\n"
+                + "legacy@qq.com\t\n").getBytes(StandardCharsets.UTF_8));
+        JournalEmailStorage storage = open();
+        Map<String, String> entries = read(storage);
+        storage.close();
+        assertEquals(2, entries.size());
+        assertEquals("Steve", entries.get("steve@qq.com"));
+        assertEquals("", entries.get("legacy@qq.com"));
+    }
+
+    // 压缩后的快照中也不会出现被截掉的记录
+    @Test
+    public void compactionKeepsOnlyCompleteRecords() throws IOException {
+        Files.write(journal.toPath(), "steve@qq.com\tSteve\nalice@exa".getBytes(StandardCharsets.UTF_8));
+        JournalEmailStorage storage = open(2);
+        storage.append("alex@qq.com", "Alex");
+        storage.flush();
+        Map<String, String> entries = read(storage);
+        storage.close();
+        assertEquals(0, journal.length());
+        assertEquals(2, entries.size());
+        assertEquals("steve@qq.com\tSteve\nalex@qq.com\tAlex\n",
+                new String(Files.readAllBytes(new File(folder, "emails.snapshot").toPath()), StandardCharsets.UTF_8));
+    }
+
+    private JournalEmailStorage open() throws IOException {
+        return open(10000);
+    }
+
+    private JournalEmailStorage open(int compactAfter) throws IOException {
+        return new JournalEmailStorage(folder, LOGGER, 0, compactAfter, new Metrics.Histogram());
+    }
+
+    private static Map<String, String> read(JournalEmailStorage storage) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        storage.forEach(entries::put);
+        return entries;
+    }
+}
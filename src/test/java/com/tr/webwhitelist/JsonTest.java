@@ -0,0 +1,31 @@
+package com.tr.webwhitelist;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonTest {
+    @Test
+    public void buildsFlatObject() {
+        assertEquals("{}", Json.object());
+        assertEquals("{\"id\":\"abc\",\"status\":\"pending\"}", Json.object("id", "abc", "status", "pending"));
+    }
+
+    @Test
+    public void escapesControlAndHtmlCharacters() {
+        assertEquals("\"a\\\"b\\\\c\\n\\r\\t\\u0001\\u003cscript\\u003e\\u2028\"",
+                Json.quote(new StringBuilder(), "a\"b\\c\n\r\t\u0001<script> ").toString());
+    }
+
+    // 解析器能读回输出的内容
+    @Test
+    public void roundTripsThroughFormParser() throws FormParser.FormException {
+        String username = "St\"eve\\\n<b> ";
+        String json = Json.object("username", username, "email", "中文@qq.com");
+        FormParser.Form form = new FormParser(4096, 320).parseJson(json.getBytes(StandardCharsets.UTF_8));
+        assertEquals(username, form.username);
+        assertEquals("中文@qq.com", form.email);
+    }
+}
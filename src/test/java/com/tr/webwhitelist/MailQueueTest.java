@@ -0,0 +1,102 @@
+package com.tr.webwhitelist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MailQueueTest {
+    private static final Logger LOGGER = Logger.getLogger(MailQueueTest.class.getName());
+
+    private FakeSmtpServer server;
+    private SmtpMailer mailer;
+
+    @Before
+    public void start() throws IOException {
+        server = new FakeSmtpServer();
+        mailer = new SmtpMailer("127.0.0.1", server.port(), SmtpMailer.Security.NONE, "", "",
+                "noreply@example.com", 2000);
+    }
+
+    @After
+    public void stop() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void deliversQueuedMailOverOneConnection() throws Exception {
+        MailQueue queue = new MailQueue(LOGGER, mailer, 16, 0, 100, 60000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(new MailQueue.Mail("p" + i + "@example.com", "s", "body " + i, null)));
+        }
+        queue.shutdown(5000);
+
+        assertEquals(5, server.messages().size());
+        assertEquals(1, server.connections());
+        assertEquals(0, queue.getPending());
+        assertEquals("body 4", SmtpMailerTest.body(server.messages().get(4)));
+    }
+
+    // 第 n 次重试前等待 backoff * 2^(n-1)
+    @Test
+    public void retriesWithExponentialBackoff() throws Exception {
+        server.failNextMails(2);
+        MailQueue queue = new MailQueue(LOGGER, mailer, 16, 3, 100, 60000);
+        AtomicReference<MailQueue.Mail> failed = new AtomicReference<>();
+        MailQueue.Mail mail = new MailQueue.Mail("p@example.com", "s", "retry", failed::set);
+        long start = System.nanoTime();
+        assertTrue(queue.offer(mail));
+
+        waitFor(() -> server.messages().size() == 1);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(server.deliveredAt().get(0) - start);
+        queue.shutdown(5000);
+
+        assertEquals(3, mail.attempts);
+        assertEquals(3, server.mailCommands());
+        assertTrue("waited " + elapsedMillis + " ms", elapsedMillis >= 100 + 200);
+        assertNull(failed.get());
+    }
+
+    @Test
+    public void reportsFailureAfterLastRetry() throws Exception {
+        server.failNextMails(Integer.MAX_VALUE);
+        MailQueue queue = new MailQueue(LOGGER, mailer, 16, 2, 100, 60000);
+        CountDownLatch failed = new CountDownLatch(1);
+        MailQueue.Mail mail = new MailQueue.Mail("p@example.com", "s", "never", m -> failed.countDown());
+        assertTrue(queue.offer(mail));
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(3, mail.attempts);
+        assertEquals(0, queue.getPending());
+        assertEquals(0, server.messages().size());
+        queue.shutdown(5000);
+    }
+
+    @Test
+    public void rejectsWhenFull() throws Exception {
+        server.failNextMails(Integer.MAX_VALUE);
+        // 失败的邮件在重试间隔内仍占着名额
+        MailQueue queue = new MailQueue(LOGGER, mailer, 1, 5, 10000, 60000);
+        assertTrue(queue.offer(new MailQueue.Mail("a@example.com", "s", "one", null)));
+        assertFalse(queue.offer(new MailQueue.Mail("b@example.com", "s", "two", null)));
+        queue.shutdown(1000);
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.tr.webwhitelist;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RegistrationTrackerTest {
+    private final RegistrationTracker tracker = new RegistrationTracker(100, 60, 2);
+    private final ExecutorService web = Executors.newSingleThreadExecutor(new NamedThreadFactory("Test-Web"));
+    private final BlockingQueue<String> threads = new ArrayBlockingQueue<>(10);
+
+    @After
+    public void stop() {
+        tracker.shutdown();
+        web.shutdownNow();
+    }
+
+    // 结果在计时线程上完成, 响应仍由网页执行器写出
+    @Test
+    public void respondsOnWebExecutorWhenDone() throws InterruptedException {
+        RegistrationTracker.Ticket ticket = tracker.track(new WhitelistQueue.Registration("Steve", "steve@qq.com"));
+        assertSame(ticket, tracker.get(ticket.id));
+        assertTrue(tracker.await(ticket, 10000, web, done -> threads.add(Thread.currentThread().getName())));
+        assertEquals(1, tracker.getWaiters());
+
+        ticket.registration.result.complete(WhitelistQueue.Outcome.ADDED);
+        String thread = threads.poll(5, TimeUnit.SECONDS);
+        assertNotNull(thread);
+        assertTrue(thread, thread.startsWith("Test-Web"));
+        assertEquals(0, tracker.getWaiters());
+        assertEquals(WhitelistQueue.Outcome.ADDED, ticket.outcome());
+    }
+
+    @Test
+    public void respondsOnWebExecutorAfterTimeout() throws InterruptedException {
+        RegistrationTracker.Ticket ticket = tracker.track(new WhitelistQueue.Registration("Steve", "steve@qq.com"));
+        assertTrue(tracker.await(ticket, 50, web, done -> threads.add(Thread.currentThread().getName())));
+
+        String thread = threads.poll(5, TimeUnit.SECONDS);
+        assertNotNull(thread);
+        assertTrue(thread, thread.startsWith("Test-Web"));
+        assertNull(ticket.outcome());
+        // 之后完成也不会再回调
+        ticket.registration.result.complete(WhitelistQueue.Outcome.ADDED);
+        assertNull(threads.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void limitsWaiters() {
+        RegistrationTracker.Ticket ticket = tracker.track(new WhitelistQueue.Registration("Steve", "steve@qq.com"));
+        assertTrue(tracker.await(ticket, 10000, web, done -> { }));
+        assertTrue(tracker.await(ticket, 10000, web, done -> { }));
+        assertFalse(tracker.await(ticket, 10000, web, done -> { }));
+        assertEquals(2, tracker.getWaiters());
+    }
+}
@@ -0,0 +1,86 @@
+package com.tr.webwhitelist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SmtpMailerTest {
+    private FakeSmtpServer server;
+    private SmtpMailer mailer;
+
+    @Before
+    public void start() throws IOException {
+        server = new FakeSmtpServer();
+        mailer = new SmtpMailer("127.0.0.1", server.port(), SmtpMailer.Security.NONE, "", "",
+                "noreply@example.com", 2000);
+    }
+
+    @After
+    public void stop() throws IOException {
+        mailer.close();
+        server.close();
+    }
+
+    @Test
+    public void sendsBase64Message() throws IOException {
+        mailer.send("player@example.com", "验证码", "你的验证码是 123456\n.以点开头的行");
+
+        assertEquals(1, server.messages().size());
+        String message = server.messages().get(0);
+        assertTrue(message.contains("To: player@example.com\n"));
+        assertTrue(message.contains("Subject: =?UTF-8?B?"
+                + Base64.getEncoder().encodeToString("验证码".getBytes(StandardCharsets.UTF_8)) + "?=\n"));
+        assertEquals("你的验证码是 123456\n.以点开头的行", body(message));
+    }
+
+    @Test
+    public void reusesConnection() throws IOException {
+        mailer.send("a@example.com", "s", "one");
+        mailer.send("b@example.com", "s", "two");
+        mailer.send("c@example.com", "s", "three");
+
+        assertEquals(3, server.messages().size());
+        assertEquals(1, server.connections());
+        assertTrue(mailer.isConnected());
+    }
+
+    // 服务器关掉了复用的连接时, 重新连接后再发一次
+    @Test
+    public void reconnectsWhenReusedConnectionWasClosed() throws Exception {
+        server.closeAfterMessage(true);
+        mailer.send("a@example.com", "s", "one");
+        // 等服务器那一端关闭
+        Thread.sleep(100);
+        mailer.send("b@example.com", "s", "two");
+
+        assertEquals(2, server.messages().size());
+        assertEquals(2, server.connections());
+    }
+
+    @Test
+    public void rejectedMailThrowsAndDisconnects() {
+        server.failNextMails(1);
+        try {
+            mailer.send("a@example.com", "s", "one");
+            fail("451 should fail the send");
+        } catch (IOException expected) {
+            assertFalse(mailer.isConnected());
+        }
+        assertEquals(0, server.messages().size());
+    }
+
+    // 取出空行之后的 base64 正文并解码
+    static String body(String message) {
+        String encoded = message.substring(message.indexOf("\n\n") + 2).replace("\n", "");
+        return new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+    }
+}
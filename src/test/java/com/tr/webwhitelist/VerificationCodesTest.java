@@ -0,0 +1,57 @@
+package com.tr.webwhitelist;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VerificationCodesTest {
+    private static final String EMAIL = "player@example.com";
+
+    @Test
+    public void codeIsSingleUse() {
+        VerificationCodes codes = new VerificationCodes(6, 300, 5, 0, 100);
+        String code = codes.issue(EMAIL);
+        assertNotNull(code);
+        assertTrue(code.matches("[0-9]{6}"));
+
+        assertTrue(codes.verify(EMAIL, code));
+        assertFalse(codes.verify(EMAIL, code));
+        assertEquals(0, codes.size());
+    }
+
+    @Test
+    public void codeIsDroppedAfterTooManyAttempts() {
+        VerificationCodes codes = new VerificationCodes(6, 300, 3, 0, 100);
+        String code = codes.issue(EMAIL);
+        String wrong = code.equals("000000") ? "111111" : "000000";
+        for (int i = 0; i < 3; i++) {
+            assertFalse(codes.verify(EMAIL, wrong));
+        }
+        // 第 4 次即使正确也不再接受
+        assertFalse(codes.verify(EMAIL, code));
+        assertEquals(0, codes.size());
+    }
+
+    @Test
+    public void codeExpires() throws InterruptedException {
+        VerificationCodes codes = new VerificationCodes(6, 1, 5, 0, 100);
+        String code = codes.issue(EMAIL);
+        Thread.sleep(1100);
+        assertFalse(codes.verify(EMAIL, code));
+    }
+
+    @Test
+    public void cooldownLimitsReissue() {
+        VerificationCodes codes = new VerificationCodes(6, 300, 5, 60, 100);
+        assertNotNull(codes.issue(EMAIL));
+        assertNull(codes.issue(EMAIL));
+        assertTrue(codes.cooldownRemaining(EMAIL) > 0);
+        // 撤回后可以立即重新发送
+        codes.revoke(EMAIL);
+        assertNotNull(codes.issue(EMAIL));
+    }
+}
@@ -0,0 +1,175 @@
+package com.tr.webwhitelist;
+
+import org.bukkit.OfflinePlayer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WhitelistQueueTest {
+    private static final Logger LOGGER = Logger.getLogger(WhitelistQueueTest.class.getName());
+
+    private final List<String> lookups = new CopyOnWriteArrayList<>();
+    private final List<String> applied = new CopyOnWriteArrayList<>();
+    private final Metrics metrics = new Metrics();
+    private volatile long applyMillis;
+    private WhitelistQueue queue;
+
+    @After
+    public void shutdown() {
+        if (queue != null) {
+            queue.shutdown(1000);
+        }
+    }
+
+    // 同一玩家名 (不分大小写) 只查一次档案
+    @Test
+    public void cachesProfilesByName() throws Exception {
+        queue = open(new ExpiringCache<>(16, 1, TimeUnit.MINUTES), 100);
+        applyAll(submit("Steve"), submit("steve"), submit("Alex"));
+        assertEquals(2, lookups.size());
+    }
+
+    @Test
+    public void expiredProfileIsLookedUpAgain() throws Exception {
+        queue = open(new ExpiringCache<>(16, 50, TimeUnit.MILLISECONDS), 100);
+        applyAll(submit("Steve"));
+        Thread.sleep(100);
+        applyAll(submit("Steve"));
+        assertEquals(2, lookups.size());
+    }
+
+    // 超过容量时淘汰最久未用的档案
+    @Test
+    public void evictsLeastRecentlyUsedProfile() throws Exception {
+        queue = open(new ExpiringCache<>(2, 1, TimeUnit.MINUTES), 100);
+        applyAll(submit("Steve"), submit("Alex"));
+        applyAll(submit("Steve"));
+        applyAll(submit("Herobrine"));
+        assertEquals(3, lookups.size());
+        applyAll(submit("Steve"));
+        assertEquals(3, lookups.size());
+        applyAll(submit("Alex"));
+        assertEquals(4, lookups.size());
+    }
+
+    // 每 tick 最多应用 maxPerTick 个, 剩下的留到下一个 tick
+    @Test
+    public void drainStopsAtPerTickBudget() throws Exception {
+        queue = open(new ExpiringCache<>(16, 1, TimeUnit.MINUTES), 2);
+        List<WhitelistQueue.Registration> registrations = new ArrayList<>();
+        for (String name : new String[] {"Steve", "Alex", "Herobrine", "Notch", "Jeb"}) {
+            registrations.add(submit(name));
+        }
+        WhitelistQueue.Registration last = awaitResolved();
+        assertEquals(6, queue.getQueueDepth());
+        assertEquals(2, queue.drain());
+        assertEquals(2, queue.getLastBatchSize());
+        assertEquals(4, queue.getQueueDepth());
+        assertEquals(2, queue.drain());
+        assertEquals(4, applied.size());
+        for (WhitelistQueue.Registration registration : registrations.subList(0, 4)) {
+            assertTrue(registration.result.isDone());
+        }
+        assertFalse(registrations.get(4).result.isDone());
+
+        registrations.add(last);
+        applyAll(registrations.toArray(new WhitelistQueue.Registration[0]));
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(0, queue.drain());
+        String rendered = metrics.render();
+        assertTrue(rendered.contains("trwhitelist_whitelist_batch_seconds_count "));
+        assertFalse(rendered.contains("trwhitelist_whitelist_batch_seconds_count 0\n"));
+    }
+
+    // 时间预算用完后停止, 但每次至少应用一个, 单个慢条目不会让队列停住
+    @Test
+    public void drainAppliesAtLeastOneEntryPerTick() throws Exception {
+        queue = open(new ExpiringCache<>(16, 1, TimeUnit.MINUTES), 100);
+        applyMillis = 5;
+        for (String name : new String[] {"Steve", "Alex", "Herobrine"}) {
+            submit(name);
+        }
+        WhitelistQueue.Registration last = awaitResolved();
+        assertEquals(1, queue.drain(100, 0));
+        assertEquals(1, queue.drain(100, TimeUnit.MILLISECONDS.toNanos(1)));
+        assertTrue(queue.getLastBatchMillis() >= 5);
+        applyAll(last);
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(4, applied.size());
+    }
+
+    private WhitelistQueue open(ExpiringCache<String, OfflinePlayer> profiles, int maxPerTick) {
+        // 单个解析线程, 按提交顺序解析
+        return new WhitelistQueue(LOGGER, username -> {
+            lookups.add(username);
+            return player();
+        }, profiles, 1, maxPerTick, 0, (registration, outcome, error) -> {
+            applied.add(registration.username);
+            if (applyMillis > 0) {
+                try {
+                    Thread.sleep(applyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, metrics);
+    }
+
+    private WhitelistQueue.Registration submit(String username) {
+        WhitelistQueue.Registration registration = new WhitelistQueue.Registration(username, username + "@qq.com");
+        queue.submit(registration);
+        return registration;
+    }
+
+    // 解析线程按顺序执行: 最后提交的条目开始解析时, 之前的条目都已进入就绪队列
+    private WhitelistQueue.Registration awaitResolved() throws InterruptedException {
+        WhitelistQueue.Registration last = submit("Barrier");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!lookups.contains("Barrier")) {
+            assertTrue("profile resolver did not run", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        return last;
+    }
+
+    // 主线程循环应用, 直到这些条目都完成
+    private void applyAll(WhitelistQueue.Registration... registrations) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (WhitelistQueue.Registration registration : registrations) {
+            while (!registration.result.isDone()) {
+                assertTrue("registration was not applied", System.nanoTime() < deadline);
+                queue.drain();
+                Thread.sleep(1);
+            }
+            // 缓存命中时拿到的是同一个档案, 第二次得到已在白名单中
+            assertFalse(registration.result.get() == WhitelistQueue.Outcome.FAILED);
+        }
+    }
+
+    // 只实现白名单状态的玩家档案
+    private static OfflinePlayer player() {
+        boolean[] whitelisted = new boolean[1];
+        return (OfflinePlayer) Proxy.newProxyInstance(OfflinePlayer.class.getClassLoader(),
+                new Class<?>[] {OfflinePlayer.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isWhitelisted":
+                            return whitelisted[0];
+                        case "setWhitelisted":
+                            whitelisted[0] = (Boolean) args[0];
+                            return null;
+                        default:
+                            return method.getReturnType() == boolean.class ? false : null;
+                    }
+                });
+    }
+}